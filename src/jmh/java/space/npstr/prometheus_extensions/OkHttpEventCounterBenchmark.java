@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The callbacks of a whole call, since okhttp invokes all of them for every call. A timing listener is created per
+ * call, same as okhttp does with the factory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OkHttpEventCounterBenchmark {
+
+	private static final String DOMAIN = "discord.com";
+	private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved(DOMAIN, 443);
+
+	private OkHttpEventCounter counter;
+	private EventListener.Factory timingFactory;
+	private Call call;
+	private Request request;
+	private Response response;
+	private List<InetAddress> addresses;
+
+	@Setup
+	public void setUp() throws Exception {
+		OkHttpMetrics metrics = new OkHttpMetrics(new PrometheusRegistry());
+		this.counter = new OkHttpEventCounter("benchmark", metrics);
+		this.timingFactory = OkHttpEventCounter.timingFactory("benchmark", metrics);
+		this.request = new Request.Builder().url("https://discord.com/api/v10/gateway").build();
+		this.call = new OkHttpClient().newCall(this.request);
+		this.response = new Response.Builder()
+			.request(this.request)
+			.protocol(Protocol.HTTP_2)
+			.code(200)
+			.message("OK")
+			.build();
+		this.addresses = List.of(InetAddress.getLoopbackAddress());
+	}
+
+	@Benchmark
+	public void pooledConnection() {
+		call(this.counter, false);
+	}
+
+	@Benchmark
+	public void newConnection() {
+		call(this.counter, true);
+	}
+
+	@Benchmark
+	public void pooledConnectionTimed() {
+		call(this.timingFactory.create(this.call), false);
+	}
+
+	@Benchmark
+	public void newConnectionTimed() {
+		call(this.timingFactory.create(this.call), true);
+	}
+
+	private void call(EventListener listener, boolean connect) {
+		listener.callStart(this.call);
+		if (connect) {
+			listener.dnsStart(this.call, DOMAIN);
+			listener.dnsEnd(this.call, DOMAIN, this.addresses);
+			listener.connectStart(this.call, ADDRESS, Proxy.NO_PROXY);
+			listener.secureConnectStart(this.call);
+			listener.secureConnectEnd(this.call, null);
+			listener.connectEnd(this.call, ADDRESS, Proxy.NO_PROXY, Protocol.HTTP_2);
+		}
+		listener.connectionAcquired(this.call, null);
+		listener.requestHeadersStart(this.call);
+		listener.requestHeadersEnd(this.call, this.request);
+		listener.responseHeadersStart(this.call);
+		listener.responseHeadersEnd(this.call, this.response);
+		listener.responseBodyStart(this.call);
+		listener.responseBodyEnd(this.call, 1024);
+		listener.connectionReleased(this.call, null);
+		listener.callEnd(this.call);
+	}
+}
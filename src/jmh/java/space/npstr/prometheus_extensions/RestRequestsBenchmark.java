@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of observing a REST request into a summary compared to the {@link HistogramMode}s of a histogram.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestRequestsBenchmark {
+
+	private static final int VALUES = 1024;
+
+	@Param({"SUMMARY", "CLASSIC", "NATIVE", "CLASSIC_AND_NATIVE"})
+	public String metric;
+
+	private DiscordMetrics discordMetrics;
+	private DistributionDataPoint dataPoint;
+	// spread over a few orders of magnitude, like REST response times
+	private final double[] values = new double[VALUES];
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		DiscordMetricsOptions.Builder options = DiscordMetricsOptions.builder();
+		if (this.metric.equals("SUMMARY")) {
+			options.restRequests(DiscordMetricsOptions.MetricType.SUMMARY);
+		} else {
+			options.restRequests(DiscordMetricsOptions.MetricType.HISTOGRAM)
+				.histogramMode(HistogramMode.valueOf(this.metric));
+		}
+		this.discordMetrics = new DiscordMetrics(new PrometheusRegistry(), options.build());
+		this.dataPoint = this.discordMetrics.discordRestRequest("POST", "/channels/{channel.id}/messages", "200", "");
+
+		SplittableRandom random = new SplittableRandom(42);
+		for (int i = 0; i < VALUES; i++) {
+			this.values[i] = Math.exp(random.nextDouble(Math.log(0.01), Math.log(10)));
+		}
+	}
+
+	@Benchmark
+	public void observe() {
+		this.dataPoint.observe(nextValue());
+	}
+
+	@Benchmark
+	public void resolveAndObserve() {
+		this.discordMetrics.discordRestRequest("POST", "/channels/{channel.id}/messages", "200", "")
+			.observe(nextValue());
+	}
+
+	private double nextValue() {
+		return this.values[this.next++ & (VALUES - 1)];
+	}
+}
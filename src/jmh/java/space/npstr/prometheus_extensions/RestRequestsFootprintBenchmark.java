@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The heap kept per REST request series by a summary compared to the {@link HistogramMode}s of a histogram, reported
+ * as the {@code retainedBytesPerSeries} counter. Each run fills fresh metrics with route and status series, and
+ * compares the used heap after a full GC before and after.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RestRequestsFootprintBenchmark {
+
+	private static final int ROUTES = 200;
+	private static final String[] STATUSES = {"200", "204", "400", "404", "429"};
+	private static final int OBSERVATIONS_PER_SERIES = 100;
+
+	@Param({"SUMMARY", "CLASSIC", "NATIVE", "CLASSIC_AND_NATIVE"})
+	public String metric;
+
+	private DiscordMetricsOptions options;
+	private final double[] values = new double[OBSERVATIONS_PER_SERIES];
+
+	@Setup
+	public void setUp() {
+		DiscordMetricsOptions.Builder builder = DiscordMetricsOptions.builder();
+		if (this.metric.equals("SUMMARY")) {
+			builder.restRequests(DiscordMetricsOptions.MetricType.SUMMARY);
+		} else {
+			builder.restRequests(DiscordMetricsOptions.MetricType.HISTOGRAM)
+				.histogramMode(HistogramMode.valueOf(this.metric));
+		}
+		this.options = builder.build();
+
+		// spread over a few orders of magnitude, so the native histograms populate a realistic amount of buckets
+		SplittableRandom random = new SplittableRandom(42);
+		for (int i = 0; i < OBSERVATIONS_PER_SERIES; i++) {
+			this.values[i] = Math.exp(random.nextDouble(Math.log(0.01), Math.log(10)));
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+
+		public long retainedBytesPerSeries;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.retainedBytesPerSeries = 0;
+		}
+	}
+
+	@Benchmark
+	public DiscordMetrics fill(Footprint footprint) {
+		long before = usedHeapAfterGc();
+		DiscordMetrics discordMetrics = new DiscordMetrics(new PrometheusRegistry(), this.options);
+		for (int route = 0; route < ROUTES; route++) {
+			String uri = "/benchmark/" + route + "/{id}";
+			for (String status : STATUSES) {
+				var dataPoint = discordMetrics.discordRestRequest("GET", uri, status, "");
+				for (double value : this.values) {
+					dataPoint.observe(value);
+				}
+			}
+		}
+		long after = usedHeapAfterGc();
+		footprint.retainedBytesPerSeries = (after - before) / (ROUTES * STATUSES.length);
+		return discordMetrics; // keeps it reachable until after the measurement
+	}
+
+	private static long usedHeapAfterGc() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
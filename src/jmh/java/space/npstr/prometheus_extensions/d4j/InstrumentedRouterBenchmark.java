@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.d4j;
+
+import discord4j.rest.request.RouterOptions;
+import discord4j.rest.route.Route;
+import discord4j.rest.route.Routes;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.util.concurrent.TimeUnit;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import space.npstr.prometheus_extensions.DiscordMetrics;
+import space.npstr.prometheus_extensions.DiscordMetricsOptions;
+
+/**
+ * Records the outcome of every REST request, excluding the reactor plumbing around it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstrumentedRouterBenchmark {
+
+	private static final long RESPONSE_TIME_NANOS = 42_000_000;
+	private static final int UNKNOWN_MESSAGE = 10008;
+
+	@Param({"SUMMARY", "HISTOGRAM"})
+	public DiscordMetricsOptions.MetricType restRequests;
+
+	private InstrumentedRouter router;
+	private Route route;
+
+	@Setup
+	public void setUp() {
+		DiscordMetricsOptions options = DiscordMetricsOptions.builder()
+			.restRequests(this.restRequests)
+			.build();
+		DiscordMetrics discordMetrics = new DiscordMetrics(new PrometheusRegistry(), options);
+		this.router = new InstrumentedRouter(discordMetrics, null, Mockito.mock(RouterOptions.class));
+		this.route = Routes.MESSAGE_CREATE;
+	}
+
+	@Benchmark
+	public void success() {
+		this.router.observe(this.route, 200, InstrumentedRouter.NO_ERROR_CODE, RESPONSE_TIME_NANOS);
+	}
+
+	@Benchmark
+	public void error() {
+		this.router.observe(this.route, 404, UNKNOWN_MESSAGE, RESPONSE_TIME_NANOS);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import gnu.trove.map.TLongObjectMap;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.sharding.ShardManager;
+import net.dv8tion.jda.internal.utils.cache.SnowflakeCacheViewImpl;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Counts the distinct users of synthetic shards, a fifth of the users are cached on a second shard, like members of
+ * several guilds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistinctUsersCounterBenchmark {
+
+	private static final int SHARDS = 16;
+
+	@Param({"100000", "1000000", "10000000"})
+	public int users;
+
+	@Param({"SCAN", "APPROXIMATE"})
+	public DistinctUsersMode mode;
+
+	private DistinctUsersCounter counter;
+
+	@Setup
+	public void setUp() {
+		// the values are never read, a single user does
+		User user = Mockito.mock(User.class);
+		List<JDA> shards = new ArrayList<>(SHARDS);
+		List<TLongObjectMap<User>> userCaches = new ArrayList<>(SHARDS);
+		for (int i = 0; i < SHARDS; i++) {
+			SnowflakeCacheViewImpl<User> userCache = new SnowflakeCacheViewImpl<>(User.class, User::getName);
+			JDA shard = Mockito.mock(JDA.class);
+			Mockito.when(shard.getUserCache()).thenReturn(userCache);
+			shards.add(shard);
+			userCaches.add(userCache.getMap());
+		}
+
+		SplittableRandom random = new SplittableRandom(42);
+		for (int i = 0; i < this.users; i++) {
+			long id = random.nextLong(Long.MAX_VALUE);
+			int shard = random.nextInt(SHARDS);
+			userCaches.get(shard).put(id, user);
+			if (random.nextInt(5) == 0) {
+				userCaches.get((shard + 1 + random.nextInt(SHARDS - 1)) % SHARDS).put(id, user);
+			}
+		}
+
+		ShardManager shardManager = Mockito.mock(ShardManager.class);
+		Mockito.when(shardManager.getShards()).thenReturn(shards);
+		JdaMetricsOptions options = JdaMetricsOptions.builder()
+			.distinctUsersMode(this.mode)
+			.build();
+		this.counter = new DistinctUsersCounter(shardManager, options, new PrometheusRegistry());
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.counter.shutdown();
+	}
+
+	@Benchmark
+	public int count() {
+		return this.counter.count();
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.util.concurrent.TimeUnit;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.requests.Method;
+import net.dv8tion.jda.api.requests.Route;
+import net.dv8tion.jda.api.utils.data.DataObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import space.npstr.prometheus_extensions.DiscordMetrics;
+import space.npstr.prometheus_extensions.DiscordMetricsOptions;
+
+/**
+ * Runs for every gateway event and every request of a shard. The HTTP requests go through
+ * {@link PrometheusMetricsEventListener#countRequest}, since a real {@link net.dv8tion.jda.api.events.http.HttpRequestEvent}
+ * can't be created without a running JDA.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrometheusMetricsEventListenerBenchmark {
+
+	@Param({"false", "true"})
+	public boolean stripedEventCounts;
+
+	private PrometheusMetricsEventListener listener;
+	// several classes, since the counters are resolved per event class
+	private GenericEvent[] events;
+	private int next = 0;
+	private Route staticRoute;
+	private Route customRoute;
+
+	@Setup
+	public void setUp() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		DiscordMetricsOptions options = DiscordMetricsOptions.builder()
+			.stripedEventCounts(this.stripedEventCounts)
+			.build();
+		this.listener = new PrometheusMetricsEventListener(registry, new DiscordMetrics(registry, options));
+		this.events = new GenericEvent[]{new FirstEvent(), new SecondEvent(), new ThirdEvent(), new FourthEvent()};
+		this.staticRoute = Route.Messages.SEND_MESSAGE;
+		this.customRoute = Route.custom(Method.GET, "benchmark/{id}");
+	}
+
+	@Benchmark
+	public void onGenericEvent() {
+		this.listener.onGenericEvent(this.events[this.next++ & 3]);
+	}
+
+	@Benchmark
+	public void onHttpRequest() {
+		this.listener.countRequest(200, this.staticRoute);
+	}
+
+	@Benchmark
+	public void onHttpRequestCustomRoute() {
+		this.listener.countRequest(200, this.customRoute);
+	}
+
+	private abstract static class BenchmarkEvent implements GenericEvent {
+
+		@Override
+		public JDA getJDA() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long getResponseNumber() {
+			return 0;
+		}
+
+		@Override
+		public DataObject getRawData() {
+			return null;
+		}
+	}
+
+	private static final class FirstEvent extends BenchmarkEvent {}
+
+	private static final class SecondEvent extends BenchmarkEvent {}
+
+	private static final class ThirdEvent extends BenchmarkEvent {}
+
+	private static final class FourthEvent extends BenchmarkEvent {}
+}
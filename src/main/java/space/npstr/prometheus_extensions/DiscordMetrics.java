@@ -24,11 +24,20 @@
 
 package space.npstr.prometheus_extensions;
 
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
 import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.CounterWithCallback;
 import io.prometheus.metrics.core.metrics.Gauge;
+import io.prometheus.metrics.core.metrics.GaugeWithCallback;
 import io.prometheus.metrics.core.metrics.Histogram;
 import io.prometheus.metrics.core.metrics.Summary;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public class DiscordMetrics {
 
@@ -42,22 +51,75 @@ public class DiscordMetrics {
 
 	private final Counter closeCodes;
 	private final Counter events;
+	private final boolean eventsByClass;
+	/**
+	 * Resolving the data point of an event class once saves us the label lookup on every single event.
+	 * At most one of these is set, depending on whether the event counts are striped, none if they are disabled.
+	 */
+	private final ClassValue<CounterDataPoint> eventCounters;
+	private final ClassValue<LongAdder> stripedEventCounters;
+	// by label value, read on scrape
+	private final ConcurrentMap<String, LongAdder> stripedEventCounts = new ConcurrentHashMap<>();
 
+	private final PrometheusRegistry registry;
+	private final DiscordMetricsOptions options;
+	// at most one of these is set, see DiscordMetricsOptions.Builder#restRequests
 	private final Summary discordRestRequests;
+	private final DiscordMetricsOptions.RestLabel[] restRequestLabels;
+	private final Histogram discordRestRequestsHistogram;
 	private final Histogram discordRestRequestResponseTime;
 	private final Counter discordRestHardFailures;
 
+	// registered on first use by the Discord4J integration, guarded by this
+	private RateLimits rateLimits;
+	private Gauge d4jTickDuration;
+	private Counter d4jDroppedTicks;
+
 	public DiscordMetrics(final PrometheusRegistry registry) {
+		this(registry, DiscordMetricsOptions.defaults());
+	}
+
+	public DiscordMetrics(final PrometheusRegistry registry, final DiscordMetricsOptions options) {
+		this(registry, null, options);
+	}
+
+	/**
+	 * @param entitiesCallback if not null, the entities are collected from this callback when they are scraped,
+	 *                         instead of being set on {@link #getDiscordEntities()}, which will be null. The label
+	 *                         value of the callback is the entity type.
+	 */
+	public DiscordMetrics(final PrometheusRegistry registry, final Consumer<GaugeWithCallback.Callback> entitiesCallback) {
+		this(registry, entitiesCallback, DiscordMetricsOptions.defaults());
+	}
+
+	/**
+	 * @param entitiesCallback see {@link #DiscordMetrics(PrometheusRegistry, Consumer)}
+	 */
+	public DiscordMetrics(final PrometheusRegistry registry, final Consumer<GaugeWithCallback.Callback> entitiesCallback,
+	                      final DiscordMetricsOptions options) {
+		this.registry = registry;
+		this.options = options;
+
 		this.voiceChannelsConnected = Gauge.builder()
 			.name("discord_voicechannels_connected_current")
 			.help("How many voice channel is the bot connected to")
 			.register(registry);
 
-		this.discordEntities = Gauge.builder()
-			.name("discord_entities_current")
-			.help("How many entities are present")
-			.labelNames("type")
-			.register(registry);
+		if (entitiesCallback == null) {
+			this.discordEntities = Gauge.builder()
+				.name("discord_entities_current")
+				.help("How many entities are present")
+				.labelNames("type")
+				.register(registry);
+		} else {
+			this.discordEntities = null;
+			GaugeWithCallback.builder()
+				.name("discord_entities_current")
+				.help("How many entities are present")
+				.labelNames("type")
+				.callback(entitiesCallback)
+				.register(registry);
+		}
 
 		this.unavailableGuilds = Gauge.builder()
 			.name("discord_unavailable_guilds_current")
@@ -81,11 +143,49 @@ public class DiscordMetrics {
 			.help("Recommended shard count")
 			.register(registry);
 
-		this.events = Counter.builder()
-			.name("discord_events_received_total")
-			.help("All received events by class")
-			.labelNames("class")
-			.register(registry);
+		this.eventsByClass = options.isEventsByClass();
+		String[] eventLabelNames = this.eventsByClass ? new String[]{"class"} : new String[0];
+		if (!options.isEvents()) {
+			this.events = null;
+			this.eventCounters = null;
+			this.stripedEventCounters = null;
+		} else if (options.isStripedEventCounts()) {
+			this.events = null;
+			this.eventCounters = null;
+			this.stripedEventCounters = new ClassValue<>() {
+				@Override
+				protected LongAdder computeValue(Class<?> type) {
+					return DiscordMetrics.this.stripedEventCounts.computeIfAbsent(eventLabel(type), __ -> new LongAdder());
+				}
+			};
+			CounterWithCallback.builder()
+				.name("discord_events_received_total")
+				.help("All received events by class")
+				.labelNames(eventLabelNames)
+				.callback(callback -> this.stripedEventCounts.forEach((eventClass, count) -> {
+					if (this.eventsByClass) {
+						callback.call(count.sum(), eventClass);
+					} else {
+						callback.call(count.sum());
+					}
+				}))
+				.register(registry);
+		} else {
+			this.events = Counter.builder()
+				.name("discord_events_received_total")
+				.help("All received events by class")
+				.labelNames(eventLabelNames)
+				.register(registry);
+			this.eventCounters = new ClassValue<>() {
+				@Override
+				protected CounterDataPoint computeValue(Class<?> type) {
+					return DiscordMetrics.this.eventsByClass
+						? DiscordMetrics.this.events.labelValues(eventLabel(type))
+						: DiscordMetrics.this.events;
+				}
+			};
+			this.stripedEventCounters = null;
+		}
 
 		this.closeCodes = Counter.builder()
 			.name("discord_websocket_close_codes_total")
@@ -93,15 +193,26 @@ public class DiscordMetrics {
 			.labelNames("code")
 			.register(registry);
 
-		this.discordRestRequests = Summary.builder()
+		this.restRequestLabels = options.getRestRequestLabels().toArray(new DiscordMetricsOptions.RestLabel[0]);
+		String[] restLabelNames = Arrays.stream(this.restRequestLabels)
+			.map(DiscordMetricsOptions.RestLabel::getLabelName)
+			.toArray(String[]::new);
+		this.discordRestRequests = options.getRestRequests() != DiscordMetricsOptions.MetricType.SUMMARY ? null
+			: Summary.builder()
 			.name("discord_rest_request_seconds")
 			.help("Total Discord REST requests sent and their received responses")
-			.labelNames("method", "uri", "status", "error")
+			.labelNames(restLabelNames)
+			.register(registry);
+		this.discordRestRequestsHistogram = options.getRestRequests() != DiscordMetricsOptions.MetricType.HISTOGRAM ? null
+			: latencyHistogram(options.getHistogramMode())
+			.name("discord_rest_request_seconds")
+			.help("Total Discord REST requests sent and their received responses")
+			.labelNames(restLabelNames)
 			.register(registry);
 
-		this.discordRestRequestResponseTime = Histogram.builder()
+		this.discordRestRequestResponseTime = !options.isRestResponseTime() ? null
+			: latencyHistogram(options.getHistogramMode())
 			.name("discord_rest_request_response_time_seconds")
-			.classicExponentialUpperBounds(0.05, 1.2, 20) // TODO use new native histograms when support becomes stable
 			.help("Discord REST request response time")
 			.register(registry);
 
@@ -116,6 +227,9 @@ public class DiscordMetrics {
 		return voiceChannelsConnected;
 	}
 
+	/**
+	 * @return null if the entities are collected from a callback
+	 */
 	public Gauge getDiscordEntities() {
 		return discordEntities;
 	}
@@ -136,18 +250,81 @@ public class DiscordMetrics {
 		return recommendedShardCount;
 	}
 
+	public DiscordMetricsOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * @return null if the event counts are striped or disabled, use {@link #countEvent(Class)} instead
+	 */
 	public Counter getEvents() {
 		return events;
 	}
 
+	/**
+	 * Count a received event, labelled by the simple name of its class unless configured otherwise.
+	 */
+	public void countEvent(final Class<?> eventClass) {
+		if (this.eventCounters != null) {
+			this.eventCounters.get(eventClass).inc();
+		} else if (this.stripedEventCounters != null) {
+			this.stripedEventCounters.get(eventClass).increment();
+		}
+	}
+
+	private String eventLabel(final Class<?> eventClass) {
+		return this.eventsByClass ? eventClass.getSimpleName() : "";
+	}
+
 	public Counter getCloseCodes() {
 		return closeCodes;
 	}
 
+	/**
+	 * @return null unless the REST requests are observed into a summary, see {@link DiscordMetricsOptions#getRestRequests()}
+	 */
 	public Summary getDiscordRestRequests() {
 		return discordRestRequests;
 	}
 
+	/**
+	 * @return null unless the REST requests are observed into a histogram, see {@link DiscordMetricsOptions#getRestRequests()}
+	 */
+	public Histogram getDiscordRestRequestsHistogram() {
+		return discordRestRequestsHistogram;
+	}
+
+	/**
+	 * @return the data point of a REST request, regardless of whether they are observed into a summary or histogram,
+	 * with only the selected labels applied. Null if the REST requests are disabled.
+	 */
+	public DistributionDataPoint discordRestRequest(final String method, final String uri, final String status,
+	                                                final String error) {
+		if (this.discordRestRequestsHistogram == null && this.discordRestRequests == null) {
+			return null;
+		}
+		final String[] labelValues = new String[this.restRequestLabels.length];
+		for (int i = 0; i < labelValues.length; i++) {
+			labelValues[i] = switch (this.restRequestLabels[i]) {
+				case METHOD -> method;
+				case URI -> uri;
+				case STATUS -> status;
+				case ERROR -> error;
+			};
+		}
+		if (this.discordRestRequestsHistogram != null) {
+			return labelValues.length == 0
+				? this.discordRestRequestsHistogram
+				: this.discordRestRequestsHistogram.labelValues(labelValues);
+		}
+		return labelValues.length == 0
+			? this.discordRestRequests
+			: this.discordRestRequests.labelValues(labelValues);
+	}
+
+	/**
+	 * @return null if disabled, see {@link DiscordMetricsOptions#isRestResponseTime()}
+	 */
 	public Histogram getDiscordRestRequestResponseTime() {
 		return discordRestRequestResponseTime;
 	}
@@ -155,4 +332,106 @@ public class DiscordMetrics {
 	public Counter getDiscordRestHardFailures() {
 		return discordRestHardFailures;
 	}
+
+	/**
+	 * @return the rate limit metrics, registered on first use, so that they are only exported by clients recording
+	 * rate limits, see {@link space.npstr.prometheus_extensions.d4j.RateLimitRecorder}
+	 */
+	public synchronized RateLimits getRateLimits() {
+		if (this.rateLimits == null) {
+			this.rateLimits = new RateLimits(this.registry);
+		}
+		return this.rateLimits;
+	}
+
+	/**
+	 * @return the duration of the last periodic metrics tick of the Discord4J integration, registered on first use
+	 */
+	public synchronized Gauge getD4jTickDuration() {
+		if (this.d4jTickDuration == null) {
+			this.d4jTickDuration = Gauge.builder()
+				.name("d4j_metrics_tick_duration_seconds")
+				.help("How long the last tick of the periodic metrics jobs took")
+				.register(this.registry);
+		}
+		return this.d4jTickDuration;
+	}
+
+	/**
+	 * @return the dropped periodic metrics ticks of the Discord4J integration, registered on first use
+	 */
+	public synchronized Counter getD4jDroppedTicks() {
+		if (this.d4jDroppedTicks == null) {
+			this.d4jDroppedTicks = Counter.builder()
+				.name("d4j_metrics_ticks_dropped_total")
+				.help("Ticks of the periodic metrics jobs that were dropped because the previous tick was still running")
+				.register(this.registry);
+		}
+		return this.d4jDroppedTicks;
+	}
+
+	/**
+	 * Metrics of the rate limit headers of Discord REST responses
+	 */
+	public static final class RateLimits {
+
+		private final Gauge bucketRemaining;
+		private final Gauge bucketResetAfter;
+		private final Counter hits;
+		private final Histogram retryAfter;
+
+		private RateLimits(final PrometheusRegistry registry) {
+			this.bucketRemaining = Gauge.builder()
+				.name("discord_ratelimit_bucket_remaining")
+				.help("Remaining requests of a rate limit bucket, as of the last response")
+				.labelNames("bucket")
+				.register(registry);
+
+			this.bucketResetAfter = Gauge.builder()
+				.name("discord_ratelimit_bucket_reset_after_seconds")
+				.help("Seconds until a rate limit bucket resets, as of the last response")
+				.labelNames("bucket")
+				.register(registry);
+
+			this.hits = Counter.builder()
+				.name("discord_ratelimit_hits_total")
+				.help("Total 429 responses by rate limit scope")
+				.labelNames("scope")
+				.register(registry);
+
+			this.retryAfter = Histogram.builder()
+				.name("discord_ratelimit_retry_after_seconds")
+				.classicExponentialUpperBounds(0.05, 2, 14)
+				.help("Retry after of 429 responses")
+				.register(registry);
+		}
+
+		public Gauge getBucketRemaining() {
+			return bucketRemaining;
+		}
+
+		public Gauge getBucketResetAfter() {
+			return bucketResetAfter;
+		}
+
+		public Counter getHits() {
+			return hits;
+		}
+
+		public Histogram getRetryAfter() {
+			return retryAfter;
+		}
+	}
+
+	private static Histogram.Builder latencyHistogram(final HistogramMode histogramMode) {
+		return switch (histogramMode) {
+			case CLASSIC -> Histogram.builder()
+				.classicOnly()
+				.classicExponentialUpperBounds(0.05, 1.2, 20);
+			case NATIVE -> Histogram.builder()
+				.nativeOnly();
+			case CLASSIC_AND_NATIVE -> Histogram.builder()
+				.classicExponentialUpperBounds(0.05, 1.2, 20);
+		};
+	}
 }
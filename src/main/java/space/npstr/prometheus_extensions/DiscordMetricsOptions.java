@@ -0,0 +1,259 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Options to tune which metrics {@link DiscordMetrics} maintains and how. The defaults keep the metrics as they have
+ * always been, see {@link Profile#DEFAULT}.
+ */
+public class DiscordMetricsOptions {
+
+	/**
+	 * Starting points for the options, ranging from cheap to detailed. Apply one first, then adjust single options.
+	 */
+	public enum Profile {
+
+		/**
+		 * For the largest bots: no per route REST metrics, events are counted without their class. The overall REST
+		 * response time histogram stays.
+		 */
+		MINIMAL,
+
+		/**
+		 * REST requests are observed into a summary per method, uri, status and error, and events are counted by
+		 * class.
+		 */
+		DEFAULT,
+
+		/**
+		 * Like {@link #DEFAULT}, but the REST requests are observed into a histogram, which can be aggregated across
+		 * instances and shows the full latency distribution of each route.
+		 */
+		DETAILED,
+	}
+
+	/**
+	 * How a latency metric is observed
+	 */
+	public enum MetricType {
+		SUMMARY,
+		HISTOGRAM,
+		DISABLED,
+	}
+
+	/**
+	 * The label dimensions of the per route REST requests metric
+	 */
+	public enum RestLabel {
+		METHOD("method"),
+		URI("uri"),
+		STATUS("status"),
+		ERROR("error"),
+		;
+
+		private final String labelName;
+
+		RestLabel(String labelName) {
+			this.labelName = labelName;
+		}
+
+		public String getLabelName() {
+			return labelName;
+		}
+	}
+
+	private final HistogramMode histogramMode;
+	private final MetricType restRequests;
+	private final Set<RestLabel> restRequestLabels;
+	private final boolean restResponseTime;
+	private final boolean events;
+	private final boolean eventsByClass;
+	private final boolean stripedEventCounts;
+
+	private DiscordMetricsOptions(Builder builder) {
+		this.histogramMode = builder.histogramMode;
+		this.restRequests = builder.restRequests;
+		this.restRequestLabels = EnumSet.copyOf(builder.restRequestLabels);
+		this.restResponseTime = builder.restResponseTime;
+		this.events = builder.events;
+		this.eventsByClass = builder.eventsByClass;
+		this.stripedEventCounts = builder.stripedEventCounts;
+	}
+
+	public static DiscordMetricsOptions defaults() {
+		return builder().build();
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public HistogramMode getHistogramMode() {
+		return histogramMode;
+	}
+
+	public MetricType getRestRequests() {
+		return restRequests;
+	}
+
+	/**
+	 * @return the selected label dimensions, in the order of {@link RestLabel}
+	 */
+	public Set<RestLabel> getRestRequestLabels() {
+		return EnumSet.copyOf(restRequestLabels);
+	}
+
+	public boolean isRestResponseTime() {
+		return restResponseTime;
+	}
+
+	public boolean isEvents() {
+		return events;
+	}
+
+	public boolean isEventsByClass() {
+		return eventsByClass;
+	}
+
+	public boolean isStripedEventCounts() {
+		return stripedEventCounts;
+	}
+
+	public static class Builder {
+
+		private HistogramMode histogramMode = HistogramMode.CLASSIC_AND_NATIVE;
+		private MetricType restRequests = MetricType.SUMMARY;
+		private Set<RestLabel> restRequestLabels = EnumSet.allOf(RestLabel.class);
+		private boolean restResponseTime = true;
+		private boolean events = true;
+		private boolean eventsByClass = true;
+		private boolean stripedEventCounts = false;
+
+		private Builder() {
+		}
+
+		/**
+		 * Set the metric types and labels of a profile, overriding any of them set before. Default is
+		 * {@link Profile#DEFAULT}.
+		 */
+		public Builder profile(Profile profile) {
+			switch (profile) {
+				case MINIMAL -> {
+					this.restRequests = MetricType.DISABLED;
+					this.restResponseTime = true;
+					this.events = true;
+					this.eventsByClass = false;
+				}
+				case DEFAULT -> {
+					this.restRequests = MetricType.SUMMARY;
+					this.restRequestLabels = EnumSet.allOf(RestLabel.class);
+					this.restResponseTime = true;
+					this.events = true;
+					this.eventsByClass = true;
+				}
+				case DETAILED -> {
+					this.restRequests = MetricType.HISTOGRAM;
+					this.restRequestLabels = EnumSet.allOf(RestLabel.class);
+					this.restResponseTime = true;
+					this.events = true;
+					this.eventsByClass = true;
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Representation of the REST latency histograms. Default is {@link HistogramMode#CLASSIC_AND_NATIVE}, which
+		 * is what the client library does out of the box. The native buckets are only exposed in the protobuf format.
+		 */
+		public Builder histogramMode(HistogramMode histogramMode) {
+			this.histogramMode = Objects.requireNonNull(histogramMode);
+			return this;
+		}
+
+		/**
+		 * How the per route REST requests are observed. A summary keeps a sliding window of quantiles for each label
+		 * combination, which gets expensive with hundreds of routes; a histogram with {@link HistogramMode#NATIVE}
+		 * keeps the amount of series down. Default is {@link MetricType#SUMMARY}.
+		 */
+		public Builder restRequests(MetricType restRequests) {
+			this.restRequests = Objects.requireNonNull(restRequests);
+			return this;
+		}
+
+		/**
+		 * The label dimensions of the per route REST requests. Requests that only differ in dropped labels are
+		 * observed together. Default is all of them.
+		 */
+		public Builder restRequestLabels(RestLabel... restRequestLabels) {
+			Set<RestLabel> labels = EnumSet.noneOf(RestLabel.class);
+			labels.addAll(Arrays.asList(restRequestLabels));
+			this.restRequestLabels = labels;
+			return this;
+		}
+
+		/**
+		 * The histogram of the response time of all REST requests. Default is true.
+		 */
+		public Builder restResponseTime(boolean restResponseTime) {
+			this.restResponseTime = restResponseTime;
+			return this;
+		}
+
+		/**
+		 * Count the received events. Default is true.
+		 */
+		public Builder events(boolean events) {
+			this.events = events;
+			return this;
+		}
+
+		/**
+		 * Label the received events by the simple name of their class. Default is true.
+		 */
+		public Builder eventsByClass(boolean eventsByClass) {
+			this.eventsByClass = eventsByClass;
+			return this;
+		}
+
+		/**
+		 * Count events in a {@link java.util.concurrent.atomic.LongAdder} per event class, which is read when
+		 * scraped, so counting an event never touches the label map of the counter. Default is false.
+		 */
+		public Builder stripedEventCounts(boolean stripedEventCounts) {
+			this.stripedEventCounts = stripedEventCounts;
+			return this;
+		}
+
+		public DiscordMetricsOptions build() {
+			return new DiscordMetricsOptions(this);
+		}
+	}
+}
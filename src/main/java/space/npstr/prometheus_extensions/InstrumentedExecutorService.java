@@ -0,0 +1,161 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps an executor to time how long its tasks wait in the queue and how long they run. Created by
+ * {@link ThreadPoolCollector#instrument(String, java.util.concurrent.ThreadPoolExecutor)}.
+ * <p>
+ * Submitting a task only takes a timestamp and increments the in flight count, no locks are involved. Rejections are
+ * counted when the wrapped executor throws a {@link RejectedExecutionException}, tasks dropped silently by a discarding
+ * rejection policy are not noticed, and keep counting as in flight.
+ */
+public class InstrumentedExecutorService extends AbstractExecutorService {
+
+	private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+	private final ExecutorService delegate;
+	private final DistributionDataPoint queueWait;
+	private final DistributionDataPoint execution;
+	private final CounterDataPoint rejected;
+	private final LongAdder inFlight = new LongAdder();
+	private final LongAdder running = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+
+	InstrumentedExecutorService(ExecutorService delegate, DistributionDataPoint queueWait,
+	                            DistributionDataPoint execution, CounterDataPoint rejected) {
+		this.delegate = delegate;
+		this.queueWait = queueWait;
+		this.execution = execution;
+		this.rejected = rejected;
+	}
+
+	/**
+	 * @return tasks that have been submitted and did not finish yet, whether queued or running
+	 */
+	public long getInFlight() {
+		return this.inFlight.sum();
+	}
+
+	/**
+	 * @return tasks submitted through this executor that are running, like
+	 * {@link java.util.concurrent.ThreadPoolExecutor#getActiveCount()} without taking the pool's main lock
+	 */
+	long getRunning() {
+		return this.running.sum();
+	}
+
+	/**
+	 * @return tasks submitted through this executor that completed, like
+	 * {@link java.util.concurrent.ThreadPoolExecutor#getCompletedTaskCount()} without taking the pool's main lock
+	 */
+	long getCompleted() {
+		return this.completed.sum();
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		TimedRunnable timed = new TimedRunnable(command, System.nanoTime());
+		this.inFlight.increment();
+		try {
+			this.delegate.execute(timed);
+		} catch (RejectedExecutionException e) {
+			this.inFlight.decrement();
+			this.rejected.inc();
+			throw e;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		this.delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> neverRun = new ArrayList<>();
+		for (Runnable runnable : this.delegate.shutdownNow()) {
+			if (runnable instanceof TimedRunnable timed) {
+				this.inFlight.decrement();
+				neverRun.add(timed.task);
+			} else {
+				neverRun.add(runnable);
+			}
+		}
+		return neverRun;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return this.delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return this.delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return this.delegate.awaitTermination(timeout, unit);
+	}
+
+	private final class TimedRunnable implements Runnable {
+
+		private final Runnable task;
+		private final long submitted;
+
+		private TimedRunnable(Runnable task, long submitted) {
+			this.task = task;
+			this.submitted = submitted;
+		}
+
+		@Override
+		public void run() {
+			long started = System.nanoTime();
+			queueWait.observe((started - this.submitted) / NANOS_PER_SECOND);
+			running.increment();
+			try {
+				this.task.run();
+			} finally {
+				execution.observe((System.nanoTime() - started) / NANOS_PER_SECOND);
+				// leave running before completing, so a task is never counted as both
+				running.decrement();
+				completed.increment();
+				inFlight.decrement();
+			}
+		}
+	}
+}
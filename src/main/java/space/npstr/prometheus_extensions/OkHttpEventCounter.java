@@ -24,7 +24,6 @@
 
 package space.npstr.prometheus_extensions;
 
-import io.prometheus.metrics.core.metrics.Counter;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -38,122 +37,296 @@ import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
 import reactor.util.annotation.NonNull;
+import space.npstr.prometheus_extensions.OkHttpMetrics.Event;
+import space.npstr.prometheus_extensions.OkHttpMetrics.Phase;
 
 public class OkHttpEventCounter extends EventListener {
 
-	private static final Counter httpEventCounter = Counter.builder()
-		.name("okhttp_events_total")
-		.help("Total okhttp events")
-		.labelNames("instance", "event")
-		.register();
+	// System#nanoTime() may return any value, including 0
+	private static final long NOT_STARTED = Long.MIN_VALUE;
 
-	private final String instanceLabel;
+	private final OkHttpMetrics.Instance metrics;
 
 	/**
+	 * Count the events into the metrics of the {@link io.prometheus.metrics.model.registry.PrometheusRegistry#defaultRegistry}
+	 *
 	 * @param instanceLabel meta information about the okhttp client where this counter will be registered
 	 */
 	public OkHttpEventCounter(final String instanceLabel) {
-		this.instanceLabel = instanceLabel;
+		this(instanceLabel, OkHttpMetrics.defaultMetrics());
+	}
+
+	/**
+	 * @param instanceLabel meta information about the okhttp client where this counter will be registered
+	 * @param okHttpMetrics the metrics to count the events into, may be shared between several okhttp clients
+	 */
+	public OkHttpEventCounter(final String instanceLabel, final OkHttpMetrics okHttpMetrics) {
+		this(okHttpMetrics.instance(instanceLabel));
+	}
+
+	private OkHttpEventCounter(final OkHttpMetrics.Instance metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Like {@link #timingFactory(String, OkHttpMetrics)}, using the metrics of the
+	 * {@link io.prometheus.metrics.model.registry.PrometheusRegistry#defaultRegistry}
+	 */
+	public static EventListener.Factory timingFactory(final String instanceLabel) {
+		return timingFactory(instanceLabel, OkHttpMetrics.defaultMetrics());
+	}
+
+	/**
+	 * Besides counting the events, the listeners created by this factory record the durations of the phases of each
+	 * call (DNS, connect, TLS handshake, time to first byte, response body and the whole call), and whether a call was
+	 * served by a pooled or a newly opened connection. Register it with
+	 * {@link okhttp3.OkHttpClient.Builder#eventListenerFactory(EventListener.Factory)}.
+	 *
+	 * @param instanceLabel meta information about the okhttp client where this factory will be registered
+	 * @param okHttpMetrics the metrics to record into, may be shared between several okhttp clients
+	 */
+	public static EventListener.Factory timingFactory(final String instanceLabel, final OkHttpMetrics okHttpMetrics) {
+		OkHttpMetrics.Instance metrics = okHttpMetrics.instance(instanceLabel);
+		return call -> new Timing(metrics);
 	}
 
 	@Override
 	public void callStart(final @NonNull Call call) {
-		httpEventCounter.labelValues(this.instanceLabel, "callStart").inc();
+		this.metrics.count(Event.CALL_START);
 	}
 
 	@Override
 	public void dnsStart(@NonNull final Call call, @NonNull final String domainName) {
-		httpEventCounter.labelValues(this.instanceLabel, "dnsStart").inc();
+		this.metrics.count(Event.DNS_START);
 	}
 
 	@Override
 	public void dnsEnd(@NonNull final Call call, @NonNull final String domainName, @NonNull final List<InetAddress> inetAddressList) {
-		httpEventCounter.labelValues(this.instanceLabel, "dnsEnd").inc();
+		this.metrics.count(Event.DNS_END);
 	}
 
 	@Override
 	public void connectStart(@NonNull final Call call, @NonNull final InetSocketAddress inetSocketAddress, @NonNull final Proxy proxy) {
-		httpEventCounter.labelValues(this.instanceLabel, "connectStart").inc();
+		this.metrics.count(Event.CONNECT_START);
 	}
 
 	@Override
 	public void secureConnectStart(@NonNull final Call call) {
-		httpEventCounter.labelValues(this.instanceLabel, "secureConnectStart").inc();
+		this.metrics.count(Event.SECURE_CONNECT_START);
 	}
 
 	@Override
 	public void secureConnectEnd(@NonNull final Call call, final Handshake handshake) {
-		httpEventCounter.labelValues(this.instanceLabel, "secureConnectEnd").inc();
+		this.metrics.count(Event.SECURE_CONNECT_END);
 	}
 
 	@Override
 	public void connectEnd(@NonNull final Call call, @NonNull final InetSocketAddress inetSocketAddress, @NonNull final Proxy proxy, final Protocol protocol) {
-		httpEventCounter.labelValues(this.instanceLabel, "connectEnd").inc();
+		this.metrics.count(Event.CONNECT_END);
+		this.metrics.connectionOpened(protocol);
 	}
 
 	@Override
 	public void connectFailed(@NonNull final Call call, @NonNull final InetSocketAddress inetSocketAddress, @NonNull final Proxy proxy, final Protocol protocol, @NonNull final IOException ioe) {
-		httpEventCounter.labelValues(this.instanceLabel, "connectFailed").inc();
+		this.metrics.count(Event.CONNECT_FAILED);
 	}
 
 	@Override
 	public void connectionAcquired(@NonNull final Call call, @NonNull final Connection connection) {
-		httpEventCounter.labelValues(this.instanceLabel, "connectionAcquired").inc();
+		this.metrics.count(Event.CONNECTION_ACQUIRED);
 	}
 
 	@Override
 	public void connectionReleased(@NonNull final Call call, @NonNull final Connection connection) {
-		httpEventCounter.labelValues(this.instanceLabel, "connectionReleased").inc();
+		this.metrics.count(Event.CONNECTION_RELEASED);
 	}
 
 	@Override
 	public void requestHeadersStart(@NonNull final Call call) {
-		httpEventCounter.labelValues(this.instanceLabel, "requestHeadersStart").inc();
+		this.metrics.count(Event.REQUEST_HEADERS_START);
 	}
 
 	@Override
 	public void requestHeadersEnd(@NonNull final Call call, @NonNull final Request request) {
-		httpEventCounter.labelValues(this.instanceLabel, "requestHeadersEnd").inc();
+		this.metrics.count(Event.REQUEST_HEADERS_END);
 	}
 
 	@Override
 	public void requestBodyStart(@NonNull final Call call) {
-		httpEventCounter.labelValues(this.instanceLabel, "requestBodyStart").inc();
+		this.metrics.count(Event.REQUEST_BODY_START);
 	}
 
 	@Override
 	public void requestBodyEnd(@NonNull final Call call, final long byteCount) {
-		httpEventCounter.labelValues(this.instanceLabel, "requestBodyEnd").inc();
+		this.metrics.count(Event.REQUEST_BODY_END);
+		this.metrics.requestBytes(byteCount);
 	}
 
 	@Override
 	public void responseHeadersStart(@NonNull final Call call) {
-		httpEventCounter.labelValues(this.instanceLabel, "responseHeadersStart").inc();
+		this.metrics.count(Event.RESPONSE_HEADERS_START);
 	}
 
 	@Override
 	public void responseHeadersEnd(@NonNull final Call call, @NonNull final Response response) {
-		httpEventCounter.labelValues(this.instanceLabel, "responseHeadersEnd").inc();
+		this.metrics.count(Event.RESPONSE_HEADERS_END);
 	}
 
 	@Override
 	public void responseBodyStart(@NonNull final Call call) {
-		httpEventCounter.labelValues(this.instanceLabel, "responseBodyStart").inc();
+		this.metrics.count(Event.RESPONSE_BODY_START);
 	}
 
 	@Override
 	public void responseBodyEnd(@NonNull final Call call, final long byteCount) {
-		httpEventCounter.labelValues(this.instanceLabel, "responseBodyEnd").inc();
+		this.metrics.count(Event.RESPONSE_BODY_END);
+		this.metrics.responseBytes(byteCount);
 	}
 
 	@Override
 	public void callEnd(@NonNull final Call call) {
-		httpEventCounter.labelValues(this.instanceLabel, "callEnd").inc();
+		this.metrics.count(Event.CALL_END);
 	}
 
 	@Override
 	public void callFailed(@NonNull final Call call, @NonNull final IOException ioe) {
-		httpEventCounter.labelValues(this.instanceLabel, "callFailed").inc();
+		this.metrics.count(Event.CALL_FAILED);
 	}
-}
 
+	/**
+	 * Created per call, holds the {@link System#nanoTime()} stamps of the started phases of that call, and whether it
+	 * opened a new connection.
+	 */
+	private static final class Timing extends OkHttpEventCounter {
+
+		private final OkHttpMetrics.Instance instance;
+
+		private long callStart = NOT_STARTED;
+		private long dnsStart = NOT_STARTED;
+		private long connectStart = NOT_STARTED;
+		private long secureConnectStart = NOT_STARTED;
+		private long requestSent = NOT_STARTED;
+		private long responseBodyStart = NOT_STARTED;
+		private boolean connectionOpened = false;
+
+		private Timing(final OkHttpMetrics.Instance metrics) {
+			super(metrics);
+			this.instance = metrics;
+		}
+
+		private void time(final Phase phase, final long startNanos) {
+			if (startNanos != NOT_STARTED) {
+				this.instance.time(phase, startNanos);
+			}
+		}
+
+		@Override
+		public void callStart(@NonNull final Call call) {
+			super.callStart(call);
+			this.callStart = System.nanoTime();
+		}
+
+		@Override
+		public void dnsStart(@NonNull final Call call, @NonNull final String domainName) {
+			super.dnsStart(call, domainName);
+			this.dnsStart = System.nanoTime();
+		}
+
+		@Override
+		public void dnsEnd(@NonNull final Call call, @NonNull final String domainName, @NonNull final List<InetAddress> inetAddressList) {
+			super.dnsEnd(call, domainName, inetAddressList);
+			time(Phase.DNS, this.dnsStart);
+			this.dnsStart = NOT_STARTED;
+		}
+
+		@Override
+		public void connectStart(@NonNull final Call call, @NonNull final InetSocketAddress inetSocketAddress, @NonNull final Proxy proxy) {
+			super.connectStart(call, inetSocketAddress, proxy);
+			this.connectStart = System.nanoTime();
+		}
+
+		@Override
+		public void secureConnectStart(@NonNull final Call call) {
+			super.secureConnectStart(call);
+			// the TCP connect is done once the TLS handshake begins
+			time(Phase.CONNECT, this.connectStart);
+			this.connectStart = NOT_STARTED;
+			this.secureConnectStart = System.nanoTime();
+		}
+
+		@Override
+		public void secureConnectEnd(@NonNull final Call call, final Handshake handshake) {
+			super.secureConnectEnd(call, handshake);
+			time(Phase.TLS_HANDSHAKE, this.secureConnectStart);
+			this.secureConnectStart = NOT_STARTED;
+		}
+
+		@Override
+		public void connectEnd(@NonNull final Call call, @NonNull final InetSocketAddress inetSocketAddress, @NonNull final Proxy proxy, final Protocol protocol) {
+			super.connectEnd(call, inetSocketAddress, proxy, protocol);
+			// plaintext connections don't have a TLS handshake which would have ended the connect phase
+			time(Phase.CONNECT, this.connectStart);
+			this.connectStart = NOT_STARTED;
+			this.connectionOpened = true;
+		}
+
+		@Override
+		public void connectFailed(@NonNull final Call call, @NonNull final InetSocketAddress inetSocketAddress, @NonNull final Proxy proxy, final Protocol protocol, @NonNull final IOException ioe) {
+			super.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+			this.connectStart = NOT_STARTED;
+			this.secureConnectStart = NOT_STARTED;
+		}
+
+		@Override
+		public void connectionAcquired(@NonNull final Call call, @NonNull final Connection connection) {
+			super.connectionAcquired(call, connection);
+			this.instance.connectionAcquired(this.connectionOpened);
+			// follow-up requests of the same call may reuse this connection
+			this.connectionOpened = false;
+		}
+
+		@Override
+		public void requestHeadersEnd(@NonNull final Call call, @NonNull final Request request) {
+			super.requestHeadersEnd(call, request);
+			this.requestSent = System.nanoTime();
+		}
+
+		@Override
+		public void requestBodyEnd(@NonNull final Call call, final long byteCount) {
+			super.requestBodyEnd(call, byteCount);
+			this.requestSent = System.nanoTime();
+		}
+
+		@Override
+		public void responseHeadersStart(@NonNull final Call call) {
+			super.responseHeadersStart(call);
+			time(Phase.TIME_TO_FIRST_BYTE, this.requestSent);
+			this.requestSent = NOT_STARTED;
+		}
+
+		@Override
+		public void responseBodyStart(@NonNull final Call call) {
+			super.responseBodyStart(call);
+			this.responseBodyStart = System.nanoTime();
+		}
+
+		@Override
+		public void responseBodyEnd(@NonNull final Call call, final long byteCount) {
+			super.responseBodyEnd(call, byteCount);
+			time(Phase.RESPONSE_BODY, this.responseBodyStart);
+			this.responseBodyStart = NOT_STARTED;
+		}
+
+		@Override
+		public void callEnd(@NonNull final Call call) {
+			super.callEnd(call);
+			time(Phase.CALL, this.callStart);
+		}
+
+		@Override
+		public void callFailed(@NonNull final Call call, @NonNull final IOException ioe) {
+			super.callFailed(call, ioe);
+			time(Phase.CALL, this.callStart);
+		}
+	}
+}
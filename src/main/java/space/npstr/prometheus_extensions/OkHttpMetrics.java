@@ -0,0 +1,329 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import okhttp3.Protocol;
+
+/**
+ * Metrics of okhttp clients, registered once per registry and shared by all {@link OkHttpEventCounter}s using it.
+ * <p>
+ * The data points of an okhttp client instance are resolved once, so the listener callbacks only need to increment.
+ * The phase duration histograms and the split between pooled and new connections need state per call, so they are only
+ * filled by listeners created from {@link OkHttpEventCounter#timingFactory}.
+ */
+public class OkHttpMetrics {
+
+	private static volatile OkHttpMetrics defaultInstance;
+
+	private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+	private final Counter httpEvents;
+	private final Counter connectionsAcquired;
+	private final Counter connectionsOpened;
+	private final Counter requestBytes;
+	private final Counter responseBytes;
+
+	private final Histogram callDuration;
+	private final Histogram dnsDuration;
+	private final Histogram connectDuration;
+	private final Histogram tlsHandshakeDuration;
+	private final Histogram timeToFirstByte;
+	private final Histogram responseBodyDuration;
+
+	private final ConcurrentMap<String, Instance> instances = new ConcurrentHashMap<>();
+
+	public OkHttpMetrics(PrometheusRegistry registry) {
+		this.httpEvents = Counter.builder()
+			.name("okhttp_events_total")
+			.help("Total okhttp events")
+			.labelNames("instance", "event")
+			.register(registry);
+
+		this.connectionsAcquired = Counter.builder()
+			.name("okhttp_connections_acquired_total")
+			.help("Connections acquired by okhttp calls, either from the pool or newly opened")
+			.labelNames("instance", "connection")
+			.register(registry);
+
+		this.connectionsOpened = Counter.builder()
+			.name("okhttp_connections_opened_total")
+			.help("Connections opened by okhttp clients by negotiated protocol")
+			.labelNames("instance", "protocol")
+			.register(registry);
+
+		this.requestBytes = Counter.builder()
+			.name("okhttp_request_bytes_total")
+			.help("Total bytes of request bodies sent by okhttp clients")
+			.labelNames("instance")
+			.register(registry);
+
+		this.responseBytes = Counter.builder()
+			.name("okhttp_response_bytes_total")
+			.help("Total bytes of response bodies received by okhttp clients")
+			.labelNames("instance")
+			.register(registry);
+
+		this.callDuration = Histogram.builder()
+			.name("okhttp_call_duration_seconds")
+			.help("Duration of okhttp calls, from start to end or failure")
+			.labelNames("instance")
+			.register(registry);
+
+		this.dnsDuration = Histogram.builder()
+			.name("okhttp_dns_duration_seconds")
+			.help("Duration of DNS lookups of okhttp calls")
+			.labelNames("instance")
+			.register(registry);
+
+		this.connectDuration = Histogram.builder()
+			.name("okhttp_connect_duration_seconds")
+			.help("Duration of TCP connects of okhttp calls, excluding the TLS handshake")
+			.labelNames("instance")
+			.register(registry);
+
+		this.tlsHandshakeDuration = Histogram.builder()
+			.name("okhttp_tls_handshake_duration_seconds")
+			.help("Duration of TLS handshakes of okhttp calls")
+			.labelNames("instance")
+			.register(registry);
+
+		this.timeToFirstByte = Histogram.builder()
+			.name("okhttp_time_to_first_byte_seconds")
+			.help("Time between sending the request and receiving the first byte of the response of okhttp calls")
+			.labelNames("instance")
+			.register(registry);
+
+		this.responseBodyDuration = Histogram.builder()
+			.name("okhttp_response_body_duration_seconds")
+			.help("Duration of reading the response bodies of okhttp calls")
+			.labelNames("instance")
+			.register(registry);
+	}
+
+	/**
+	 * @return the metrics registered against the {@link PrometheusRegistry#defaultRegistry}
+	 */
+	public static OkHttpMetrics defaultMetrics() {
+		OkHttpMetrics metrics = defaultInstance;
+		if (metrics == null) {
+			synchronized (OkHttpMetrics.class) {
+				metrics = defaultInstance;
+				if (metrics == null) {
+					metrics = new OkHttpMetrics(PrometheusRegistry.defaultRegistry);
+					defaultInstance = metrics;
+				}
+			}
+		}
+		return metrics;
+	}
+
+	public Counter getHttpEvents() {
+		return httpEvents;
+	}
+
+	public Counter getConnectionsAcquired() {
+		return connectionsAcquired;
+	}
+
+	public Counter getConnectionsOpened() {
+		return connectionsOpened;
+	}
+
+	public Counter getRequestBytes() {
+		return requestBytes;
+	}
+
+	public Counter getResponseBytes() {
+		return responseBytes;
+	}
+
+	public Histogram getCallDuration() {
+		return callDuration;
+	}
+
+	public Histogram getDnsDuration() {
+		return dnsDuration;
+	}
+
+	public Histogram getConnectDuration() {
+		return connectDuration;
+	}
+
+	public Histogram getTlsHandshakeDuration() {
+		return tlsHandshakeDuration;
+	}
+
+	public Histogram getTimeToFirstByte() {
+		return timeToFirstByte;
+	}
+
+	public Histogram getResponseBodyDuration() {
+		return responseBodyDuration;
+	}
+
+	/**
+	 * @param instanceLabel meta information about the okhttp client
+	 * @return the resolved data points for the okhttp client, shared by all callers with the same label
+	 */
+	Instance instance(String instanceLabel) {
+		return this.instances.computeIfAbsent(instanceLabel, Instance::new);
+	}
+
+	/**
+	 * The okhttp events we count, with their metrics label value
+	 */
+	enum Event {
+		CALL_START("callStart"),
+		DNS_START("dnsStart"),
+		DNS_END("dnsEnd"),
+		CONNECT_START("connectStart"),
+		SECURE_CONNECT_START("secureConnectStart"),
+		SECURE_CONNECT_END("secureConnectEnd"),
+		CONNECT_END("connectEnd"),
+		CONNECT_FAILED("connectFailed"),
+		CONNECTION_ACQUIRED("connectionAcquired"),
+		CONNECTION_RELEASED("connectionReleased"),
+		REQUEST_HEADERS_START("requestHeadersStart"),
+		REQUEST_HEADERS_END("requestHeadersEnd"),
+		REQUEST_BODY_START("requestBodyStart"),
+		REQUEST_BODY_END("requestBodyEnd"),
+		RESPONSE_HEADERS_START("responseHeadersStart"),
+		RESPONSE_HEADERS_END("responseHeadersEnd"),
+		RESPONSE_BODY_START("responseBodyStart"),
+		RESPONSE_BODY_END("responseBodyEnd"),
+		CALL_END("callEnd"),
+		CALL_FAILED("callFailed"),
+		;
+
+		private final String label;
+
+		Event(String label) {
+			this.label = label;
+		}
+	}
+
+	/**
+	 * The phases of an okhttp call we time
+	 */
+	enum Phase {
+		CALL,
+		DNS,
+		CONNECT,
+		TLS_HANDSHAKE,
+		TIME_TO_FIRST_BYTE,
+		RESPONSE_BODY,
+	}
+
+	/**
+	 * Data points of a single okhttp client instance
+	 */
+	final class Instance {
+
+		private final CounterDataPoint[] events;
+		private final DistributionDataPoint[] phases;
+		private final CounterDataPoint pooledConnections;
+		private final CounterDataPoint newConnections;
+		private final CounterDataPoint[] protocols;
+		private final CounterDataPoint unknownProtocol;
+		private final CounterDataPoint requestBytes;
+		private final CounterDataPoint responseBytes;
+
+		private Instance(String instanceLabel) {
+			Event[] values = Event.values();
+			this.events = new CounterDataPoint[values.length];
+			for (Event event : values) {
+				this.events[event.ordinal()] = httpEvents.labelValues(instanceLabel, event.label);
+			}
+
+			this.phases = new DistributionDataPoint[Phase.values().length];
+			this.phases[Phase.CALL.ordinal()] = callDuration.labelValues(instanceLabel);
+			this.phases[Phase.DNS.ordinal()] = dnsDuration.labelValues(instanceLabel);
+			this.phases[Phase.CONNECT.ordinal()] = connectDuration.labelValues(instanceLabel);
+			this.phases[Phase.TLS_HANDSHAKE.ordinal()] = tlsHandshakeDuration.labelValues(instanceLabel);
+			this.phases[Phase.TIME_TO_FIRST_BYTE.ordinal()] = timeToFirstByte.labelValues(instanceLabel);
+			this.phases[Phase.RESPONSE_BODY.ordinal()] = responseBodyDuration.labelValues(instanceLabel);
+
+			this.pooledConnections = connectionsAcquired.labelValues(instanceLabel, "pooled");
+			this.newConnections = connectionsAcquired.labelValues(instanceLabel, "new");
+			Protocol[] protocolValues = Protocol.values();
+			this.protocols = new CounterDataPoint[protocolValues.length];
+			for (Protocol protocol : protocolValues) {
+				this.protocols[protocol.ordinal()] = connectionsOpened.labelValues(instanceLabel, protocol.toString());
+			}
+			this.unknownProtocol = connectionsOpened.labelValues(instanceLabel, "unknown");
+			this.requestBytes = OkHttpMetrics.this.requestBytes.labelValues(instanceLabel);
+			this.responseBytes = OkHttpMetrics.this.responseBytes.labelValues(instanceLabel);
+		}
+
+		void count(Event event) {
+			this.events[event.ordinal()].inc();
+		}
+
+		void connectionAcquired(boolean newConnection) {
+			if (newConnection) {
+				this.newConnections.inc();
+			} else {
+				this.pooledConnections.inc();
+			}
+		}
+
+		/**
+		 * @param protocol may be null if okhttp couldn't tell
+		 */
+		void connectionOpened(Protocol protocol) {
+			if (protocol == null) {
+				this.unknownProtocol.inc();
+			} else {
+				this.protocols[protocol.ordinal()].inc();
+			}
+		}
+
+		void requestBytes(long byteCount) {
+			if (byteCount > 0) {
+				this.requestBytes.inc(byteCount);
+			}
+		}
+
+		void responseBytes(long byteCount) {
+			if (byteCount > 0) {
+				this.responseBytes.inc(byteCount);
+			}
+		}
+
+		/**
+		 * @param startNanos a {@link System#nanoTime()} stamp taken at the start of the phase
+		 */
+		void time(Phase phase, long startNanos) {
+			this.phases[phase.ordinal()].observe((System.nanoTime() - startNanos) / NANOS_PER_SECOND);
+		}
+	}
+}
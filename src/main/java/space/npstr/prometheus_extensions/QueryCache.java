@@ -0,0 +1,59 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Caches a value derived from a query string, for the datasource-proxy listeners.
+ */
+final class QueryCache<V> {
+
+	// prepared statements repeat the same few strings, but plain statements with inlined values don't, so the cache
+	// is cleared once it is full instead of keeping the first strings it saw forever
+	private static final int MAX_SIZE = 10_000;
+
+	private final ConcurrentMap<String, V> values = new ConcurrentHashMap<>();
+	private final Function<String, V> function;
+
+	QueryCache(Function<String, V> function) {
+		this.function = function;
+	}
+
+	V get(String query) {
+		V value = this.values.get(query);
+		if (value != null) {
+			return value;
+		}
+		value = this.function.apply(query);
+		if (this.values.size() >= MAX_SIZE) {
+			this.values.clear();
+		}
+		this.values.put(query, value);
+		return value;
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.QueryType;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.listener.QueryUtils;
+
+/**
+ * Records the latency distribution of queries executed through a datasource-proxy, by datasource, statement type and
+ * result. Complements the cumulative counters of {@link QueryCountCollector}.
+ * <p>
+ * The statement type of a query string is cached, and the data points are resolved once, so observing a query does
+ * not allocate.
+ */
+public class QueryLatencyListener implements QueryExecutionListener {
+
+	private static final QueryType[] QUERY_TYPES = QueryType.values();
+
+	private final Histogram queryDuration;
+	// by datasource name, indexed by query type and result, see #index
+	private final ConcurrentMap<String, AtomicReferenceArray<DistributionDataPoint>> dataPoints = new ConcurrentHashMap<>();
+	private final QueryCache<QueryType> queryTypes = new QueryCache<>(QueryUtils::getQueryType);
+	private final QueryTimer timer = new QueryTimer();
+
+	public QueryLatencyListener(PrometheusRegistry registry) {
+		this.queryDuration = Histogram.builder()
+			.name("jdbc_query_duration_seconds")
+			.help("Query execution time")
+			.labelNames("datasource", "type", "result")
+			.classicExponentialUpperBounds(0.0005, 2, 16)
+			.register(registry);
+	}
+
+	@Override
+	public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+		this.timer.start();
+	}
+
+	@Override
+	public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+		double seconds = this.timer.elapsedSeconds();
+		String dataSourceName = execInfo.getDataSourceName() == null ? "" : execInfo.getDataSourceName();
+		dataPoint(dataSourceName, queryType(queryInfoList), execInfo.isSuccess()).observe(seconds);
+	}
+
+	/**
+	 * @return the type shared by all queries, {@link QueryType#OTHER} if they are mixed, for example in a batch
+	 */
+	private QueryType queryType(List<QueryInfo> queryInfoList) {
+		QueryType type = null;
+		for (int i = 0; i < queryInfoList.size(); i++) {
+			QueryType queryType = queryType(queryInfoList.get(i).getQuery());
+			if (type == null) {
+				type = queryType;
+			} else if (type != queryType) {
+				return QueryType.OTHER;
+			}
+		}
+		return type == null ? QueryType.OTHER : type;
+	}
+
+	private QueryType queryType(String query) {
+		if (query == null) {
+			return QueryType.OTHER;
+		}
+		return this.queryTypes.get(query);
+	}
+
+	private DistributionDataPoint dataPoint(String dataSourceName, QueryType type, boolean success) {
+		AtomicReferenceArray<DistributionDataPoint> dataPoints = this.dataPoints.get(dataSourceName);
+		if (dataPoints == null) {
+			dataPoints = this.dataPoints.computeIfAbsent(dataSourceName,
+				__ -> new AtomicReferenceArray<>(QUERY_TYPES.length * 2));
+		}
+		int index = index(type, success);
+		DistributionDataPoint dataPoint = dataPoints.get(index);
+		if (dataPoint == null) {
+			// racing resolutions return the same data point
+			dataPoint = this.queryDuration.labelValues(dataSourceName, type.name().toLowerCase(Locale.ROOT),
+				success ? "success" : "failure");
+			dataPoints.set(index, dataPoint);
+		}
+		return dataPoint;
+	}
+
+	private static int index(QueryType type, boolean success) {
+		return type.ordinal() * 2 + (success ? 0 : 1);
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Space-Saving heavy hitters algorithm: keeps the weights of a fixed amount of keys. A key that is not tracked yet
+ * replaces the one with the smallest weight and inherits it, so the weights of the tracked keys are overestimated by
+ * at most that inherited error. Any key whose true weight exceeds total / capacity is guaranteed to be tracked.
+ * <p>
+ * The tracked keys are kept in a min-heap by weight, so adding is O(log capacity).
+ * <p>
+ * Metwally, Agrawal, El Abbadi: Efficient Computation of Frequent and Top-k Elements in Data Streams
+ */
+class SpaceSaving<T> {
+
+	record Item<T>(T key, double weight, double error) {}
+
+	private final Counter<T>[] heap;
+	private final Map<T, Counter<T>> counters;
+	private int size = 0;
+
+	@SuppressWarnings("unchecked")
+	SpaceSaving(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1, got " + capacity);
+		}
+		this.heap = new Counter[capacity];
+		this.counters = new HashMap<>(capacity * 2);
+	}
+
+	synchronized void add(T key, double weight) {
+		Counter<T> counter = this.counters.get(key);
+		if (counter == null && this.size < this.heap.length) {
+			counter = new Counter<>(key, this.size);
+			counter.weight = weight;
+			this.heap[this.size++] = counter;
+			this.counters.put(key, counter);
+			siftUp(counter.index);
+			return;
+		}
+		if (counter == null) { // evict the smallest, the new key inherits its weight as error
+			counter = this.heap[0];
+			this.counters.remove(counter.key);
+			counter.key = key;
+			counter.error = counter.weight;
+			this.counters.put(key, counter);
+		}
+		counter.weight += weight;
+		siftDown(counter.index);
+	}
+
+	/**
+	 * @return up to k of the heaviest keys, ranked by their guaranteed weight, so keys that just replaced another one
+	 * don't float to the top with their inherited error
+	 */
+	synchronized List<Item<T>> top(int k) {
+		Counter<T>[] sorted = Arrays.copyOf(this.heap, this.size);
+		Arrays.sort(sorted, Comparator.comparingDouble((Counter<T> counter) -> counter.weight - counter.error).reversed());
+		List<Item<T>> top = new ArrayList<>(Math.min(k, sorted.length));
+		for (int i = 0; i < Math.min(k, sorted.length); i++) {
+			top.add(new Item<>(sorted[i].key, sorted[i].weight, sorted[i].error));
+		}
+		return top;
+	}
+
+	// weights of tracked keys only ever grow, so they only ever move down
+	private void siftDown(int index) {
+		Counter<T> counter = this.heap[index];
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= this.size) {
+				break;
+			}
+			if (child + 1 < this.size && this.heap[child + 1].weight < this.heap[child].weight) {
+				child++;
+			}
+			if (counter.weight <= this.heap[child].weight) {
+				break;
+			}
+			move(this.heap[child], index);
+			index = child;
+		}
+		move(counter, index);
+	}
+
+	// newly appended keys may be lighter than their parents
+	private void siftUp(int index) {
+		Counter<T> counter = this.heap[index];
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (this.heap[parent].weight <= counter.weight) {
+				break;
+			}
+			move(this.heap[parent], index);
+			index = parent;
+		}
+		move(counter, index);
+	}
+
+	private void move(Counter<T> counter, int index) {
+		this.heap[index] = counter;
+		counter.index = index;
+	}
+
+	private static final class Counter<T> {
+
+		private T key;
+		private double weight = 0;
+		private double error = 0;
+		private int index;
+
+		private Counter(T key, int index) {
+			this.key = key;
+			this.index = index;
+		}
+	}
+}
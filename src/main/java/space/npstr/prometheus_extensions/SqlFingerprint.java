@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes SQL into a fingerprint, so that queries which only differ in their values are tracked as one:
+ * string and number literals are replaced by {@code ?}, lists of them and the rows of multi-row inserts are collapsed,
+ * comments are dropped and whitespace is collapsed.
+ */
+final class SqlFingerprint {
+
+	private static final Pattern VALUE_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+	// the rows of a multi-row insert, after their value lists were collapsed
+	private static final Pattern ROW_LIST = Pattern.compile("\\(\\?\\)(?:\\s*,\\s*\\(\\?\\))+");
+
+	private SqlFingerprint() {
+	}
+
+	static String fingerprint(String sql) {
+		int length = sql.length();
+		StringBuilder out = new StringBuilder(length);
+		boolean space = false;
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			char next = i + 1 < length ? sql.charAt(i + 1) : 0;
+			if (Character.isWhitespace(c)) {
+				space = true;
+				i++;
+			} else if (c == '-' && next == '-') { // line comment
+				int end = sql.indexOf('\n', i);
+				i = end < 0 ? length : end;
+				space = true;
+			} else if (c == '/' && next == '*') { // block comment
+				int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? length : end + 2;
+				space = true;
+			} else if (c == '\'') { // string literal, '' is an escaped quote
+				i++;
+				while (i < length) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						i++;
+						break;
+					}
+					i++;
+				}
+				space = append(out, space, '?');
+			} else if (c == '"' || c == '`') { // quoted identifier, keep it
+				int end = sql.indexOf(c, i + 1);
+				end = end < 0 ? length : end + 1;
+				space = append(out, space, c);
+				out.append(sql, i + 1, end);
+				i = end;
+			} else if (Character.isDigit(c) && !continuesIdentifier(out, space)) { // number literal
+				while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				space = append(out, space, '?');
+			} else {
+				space = append(out, space, c);
+				i++;
+			}
+		}
+		String collapsed = VALUE_LIST.matcher(out).replaceAll("(?)");
+		return ROW_LIST.matcher(collapsed).replaceAll("(?)");
+	}
+
+	/**
+	 * A short hash of a fingerprint, to be used as a label value instead of the fingerprint itself
+	 */
+	static String hash(String fingerprint) {
+		// FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < fingerprint.length(); i++) {
+			hash ^= fingerprint.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return String.format("%08x", (int) (hash ^ (hash >>> 32)));
+	}
+
+	private static boolean append(StringBuilder out, boolean space, char c) {
+		if (space && !out.isEmpty()) {
+			out.append(' ');
+		}
+		out.append(c);
+		return false;
+	}
+
+	private static boolean continuesIdentifier(StringBuilder out, boolean space) {
+		if (space || out.isEmpty()) {
+			return false;
+		}
+		char last = out.charAt(out.length() - 1);
+		return Character.isLetterOrDigit(last) || last == '_' || last == '$';
+	}
+}
@@ -24,18 +24,29 @@
 
 package space.npstr.prometheus_extensions;
 
-import io.prometheus.metrics.core.metrics.CounterWithCallback;
-import io.prometheus.metrics.core.metrics.GaugeWithCallback;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Histogram;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.function.BiConsumer;
-import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 public class ThreadPoolCollector {
 
 	protected final ConcurrentMap<String, ThreadPoolExecutor> pools = new ConcurrentHashMap<>();
+	protected final ConcurrentMap<String, InstrumentedExecutorService> instrumented = new ConcurrentHashMap<>();
+
+	private final Histogram queueWait;
+	private final Histogram execution;
+	private final Counter rejected;
 
 	/**
 	 * Add or replace the pool with the given name.
@@ -47,6 +58,27 @@ public class ThreadPoolCollector {
 	 */
 	public void addPool(String poolName, ThreadPoolExecutor pool) {
 		this.pools.put(poolName, pool);
+		this.instrumented.remove(poolName);
+	}
+
+	/**
+	 * Add or replace the pool with the given name, like {@link #addPool(String, ThreadPoolExecutor)}, and wrap it to
+	 * also record how long its tasks wait in the queue and run, how many are rejected, and how many are in flight.
+	 * <p>
+	 * Only tasks submitted through the returned executor are timed, and counted by the
+	 * {@code threadpool_instrumented_*} metrics. The other metrics are read from the pool and include tasks submitted
+	 * to it directly.
+	 *
+	 * @param poolName The name of the pool, will be the metrics label value
+	 * @param pool     The pool being monitored
+	 * @return the executor to submit tasks to
+	 */
+	public InstrumentedExecutorService instrument(String poolName, ThreadPoolExecutor pool) {
+		InstrumentedExecutorService executor = new InstrumentedExecutorService(pool,
+			this.queueWait.labelValues(poolName), this.execution.labelValues(poolName), this.rejected.labelValues(poolName));
+		this.pools.put(poolName, pool);
+		this.instrumented.put(poolName, executor);
+		return executor;
 	}
 
 	/**
@@ -57,6 +89,7 @@ public class ThreadPoolCollector {
 	 * @param poolName pool to be removed
 	 */
 	public ThreadPoolExecutor removePool(String poolName) {
+		this.instrumented.remove(poolName);
 		return this.pools.remove(poolName);
 	}
 
@@ -67,41 +100,131 @@ public class ThreadPoolCollector {
 	 */
 	public void clear() {
 		this.pools.clear();
+		this.instrumented.clear();
 	}
 
 	public ThreadPoolCollector(PrometheusRegistry registry) {
 		String[] labelNames = {"name"};
 
-		GaugeWithCallback.builder()
-			.name("threadpool_active_threads_current")
-			.help("Amount of active threads in a thread pool")
+		registry.register(this::collect);
+
+		this.queueWait = Histogram.builder()
+			.name("threadpool_queue_wait_seconds")
+			.help("How long tasks of an instrumented thread pool waited in the queue")
 			.labelNames(labelNames)
-			.callback(callback -> collect(callback::call, ThreadPoolExecutor::getActiveCount))
+			.classicExponentialUpperBounds(0.0001, 4, 10)
 			.register(registry);
 
-		GaugeWithCallback.builder()
-			.name("threadpool_queue_size_current")
-			.help("Size of queue of a thread pool (including scheduled tasks)")
+		this.execution = Histogram.builder()
+			.name("threadpool_execution_seconds")
+			.help("How long tasks of an instrumented thread pool ran")
 			.labelNames(labelNames)
-			.callback(callback -> collect(callback::call, pool -> pool.getQueue().size()))
+			.classicExponentialUpperBounds(0.0001, 4, 10)
 			.register(registry);
 
-		CounterWithCallback.builder()
-			.name("threadpool_completed_tasks_total")
-			.help("Total completed tasks by a thread pool")
+		this.rejected = Counter.builder()
+			.name("threadpool_rejected_tasks_total")
+			.help("Total tasks rejected by an instrumented thread pool")
 			.labelNames(labelNames)
-			.callback(callback -> collect(callback::call, ThreadPoolExecutor::getCompletedTaskCount))
 			.register(registry);
 	}
 
-	private void collect(BiConsumer<Double, String[]> callback, Function<ThreadPoolExecutor, Number> counter) {
+	/**
+	 * Reads each pool once per scrape, and shares the values across all metrics. Most getters of a
+	 * {@link ThreadPoolExecutor} take its main lock, which contends with submitting tasks to it: reading a pool takes
+	 * it 5 times (completed, active, total tasks, current and largest threads). The counts of pools registered through
+	 * {@link #instrument(String, ThreadPoolExecutor)} don't need the lock.
+	 */
+	private MetricSnapshots collect() {
+		List<PoolStats> stats = new ArrayList<>(this.pools.size());
 		for (var entry : this.pools.entrySet()) {
-			String poolName = entry.getKey();
-			String[] labels = {poolName};
-			ThreadPoolExecutor pool = entry.getValue();
-			double value = counter.apply(pool).doubleValue();
+			stats.add(poolStats(entry.getKey(), entry.getValue()));
+		}
+
+		List<MetricSnapshot> snapshots = new ArrayList<>();
+		snapshots.add(gauge("threadpool_active_threads_current", "Amount of active threads in a thread pool",
+			stats, PoolStats::activeThreads));
+		snapshots.add(gauge("threadpool_queue_size_current", "Size of queue of a thread pool (including scheduled tasks)",
+			stats, PoolStats::queueSize));
+		snapshots.add(counter("threadpool_completed_tasks", "Total completed tasks by a thread pool",
+			stats, PoolStats::completedTasks));
+		snapshots.add(gauge("threadpool_threads_current", "Amount of threads in a thread pool",
+			stats, PoolStats::threads));
+		snapshots.add(gauge("threadpool_core_threads", "Core amount of threads of a thread pool",
+			stats, PoolStats::coreThreads));
+		snapshots.add(gauge("threadpool_max_threads", "Maximum amount of threads of a thread pool",
+			stats, PoolStats::maxThreads));
+		snapshots.add(gauge("threadpool_largest_threads", "Largest amount of threads a thread pool ever had at the same time",
+			stats, PoolStats::largestThreads));
+		snapshots.add(counter("threadpool_tasks", "Total tasks ever scheduled on a thread pool",
+			stats, PoolStats::tasks));
+		snapshots.add(gauge("threadpool_queue_remaining_capacity", "Remaining capacity of the queue of a thread pool",
+			stats, PoolStats::queueRemainingCapacity));
+
+		GaugeSnapshot.Builder inFlight = GaugeSnapshot.builder()
+			.name("threadpool_in_flight_tasks_current")
+			.help("Tasks submitted to an instrumented thread pool that did not finish yet");
+		this.instrumented.forEach((poolName, executor) -> inFlight.dataPoint(GaugeSnapshot.GaugeDataPointSnapshot.builder()
+			.labels(Labels.of("name", poolName))
+			.value(executor.getInFlight())
+			.build()));
+		snapshots.add(inFlight.build());
+
+		GaugeSnapshot.Builder running = GaugeSnapshot.builder()
+			.name("threadpool_instrumented_running_tasks_current")
+			.help("Tasks submitted to an instrumented thread pool that are running");
+		CounterSnapshot.Builder completed = CounterSnapshot.builder()
+			.name("threadpool_instrumented_completed_tasks")
+			.help("Total tasks submitted to an instrumented thread pool that completed");
+		this.instrumented.forEach((poolName, executor) -> {
+			running.dataPoint(GaugeSnapshot.GaugeDataPointSnapshot.builder()
+				.labels(Labels.of("name", poolName))
+				.value(executor.getRunning())
+				.build());
+			completed.dataPoint(CounterSnapshot.CounterDataPointSnapshot.builder()
+				.labels(Labels.of("name", poolName))
+				.value(executor.getCompleted())
+				.build());
+		});
+		snapshots.add(running.build());
+		snapshots.add(completed.build());
+
+		return new MetricSnapshots(snapshots);
+	}
 
-			callback.accept(value, labels);
+	private static PoolStats poolStats(String poolName, ThreadPoolExecutor pool) {
+		return new PoolStats(poolName, pool.getActiveCount(), pool.getQueue().size(), pool.getCompletedTaskCount(),
+			pool.getPoolSize(), pool.getCorePoolSize(), pool.getMaximumPoolSize(), pool.getLargestPoolSize(),
+			pool.getTaskCount(), pool.getQueue().remainingCapacity());
+	}
+
+	private static GaugeSnapshot gauge(String name, String help, List<PoolStats> stats, ToDoubleFunction<PoolStats> value) {
+		GaugeSnapshot.Builder builder = GaugeSnapshot.builder()
+			.name(name)
+			.help(help);
+		for (PoolStats poolStats : stats) {
+			builder.dataPoint(GaugeSnapshot.GaugeDataPointSnapshot.builder()
+				.labels(Labels.of("name", poolStats.name()))
+				.value(value.applyAsDouble(poolStats))
+				.build());
+		}
+		return builder.build();
+	}
+
+	private static CounterSnapshot counter(String name, String help, List<PoolStats> stats, ToDoubleFunction<PoolStats> value) {
+		CounterSnapshot.Builder builder = CounterSnapshot.builder()
+			.name(name)
+			.help(help);
+		for (PoolStats poolStats : stats) {
+			builder.dataPoint(CounterSnapshot.CounterDataPointSnapshot.builder()
+				.labels(Labels.of("name", poolStats.name()))
+				.value(value.applyAsDouble(poolStats))
+				.build());
 		}
+		return builder.build();
 	}
+
+	private record PoolStats(String name, int activeThreads, int queueSize, long completedTasks, int threads,
+	                         int coreThreads, int maxThreads, int largestThreads, long tasks,
+	                         int queueRemainingCapacity) {}
 }
@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.core.metrics.GaugeWithCallback;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.util.List;
+import java.util.Optional;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+
+/**
+ * Finds the queries responsible for the database load: queries executed through a datasource-proxy are normalized
+ * into fingerprints, and the heaviest fingerprints by total execution time and by execution count are tracked in
+ * fixed memory with {@link SpaceSaving}.
+ * <p>
+ * The top fingerprints are exported at scrape time, labelled by a short hash of the fingerprint to keep the
+ * cardinality bounded. Use {@link #lookUpFingerprint(String)} to resolve a hash.
+ */
+public class TopQueriesListener implements QueryExecutionListener {
+
+	private static final int DEFAULT_CAPACITY = 1000;
+	private static final int DEFAULT_TOP = 10;
+
+	private final int top;
+	private final SpaceSaving<String> byTime;
+	private final SpaceSaving<String> byCount;
+	private final QueryCache<String> fingerprints = new QueryCache<>(SqlFingerprint::fingerprint);
+	private final QueryTimer timer = new QueryTimer();
+
+	public TopQueriesListener(PrometheusRegistry registry) {
+		this(registry, DEFAULT_CAPACITY, DEFAULT_TOP);
+	}
+
+	/**
+	 * @param capacity the amount of fingerprints each sketch keeps, the more distinct queries there are, the more it
+	 *                 takes to rank the top ones correctly
+	 * @param top      the amount of fingerprints exported from each sketch
+	 */
+	public TopQueriesListener(PrometheusRegistry registry, int capacity, int top) {
+		if (top < 1 || top > capacity) {
+			throw new IllegalArgumentException("Top must be between 1 and the capacity " + capacity + ", got " + top);
+		}
+		this.top = top;
+		this.byTime = new SpaceSaving<>(capacity);
+		this.byCount = new SpaceSaving<>(capacity);
+
+		GaugeWithCallback.builder()
+			.name("jdbc_top_query_time_seconds")
+			.help("Total execution time of the slowest query fingerprints")
+			.labelNames("hash")
+			.callback(callback -> collect(this.byTime, callback))
+			.register(registry);
+		GaugeWithCallback.builder()
+			.name("jdbc_top_query_count")
+			.help("Execution count of the most frequent query fingerprints")
+			.labelNames("hash")
+			.callback(callback -> collect(this.byCount, callback))
+			.register(registry);
+	}
+
+	@Override
+	public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+		this.timer.start();
+	}
+
+	@Override
+	public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+		double elapsed = this.timer.elapsedSeconds();
+		int queries = queryInfoList.size();
+		if (queries == 0) {
+			return;
+		}
+		// the time of a batch can't be attributed to its queries, so it is split evenly
+		double seconds = elapsed / queries;
+		for (int i = 0; i < queries; i++) {
+			String query = queryInfoList.get(i).getQuery();
+			if (query == null) {
+				continue;
+			}
+			String fingerprint = this.fingerprints.get(query);
+			this.byTime.add(fingerprint, seconds);
+			this.byCount.add(fingerprint, 1);
+		}
+	}
+
+	/**
+	 * @return the fingerprint of a hash that is currently exported
+	 */
+	public Optional<String> lookUpFingerprint(String hash) {
+		return lookUp(this.byTime, hash).or(() -> lookUp(this.byCount, hash));
+	}
+
+	private Optional<String> lookUp(SpaceSaving<String> sketch, String hash) {
+		return sketch.top(this.top).stream()
+			.map(SpaceSaving.Item::key)
+			.filter(fingerprint -> SqlFingerprint.hash(fingerprint).equals(hash))
+			.findAny();
+	}
+
+	private void collect(SpaceSaving<String> sketch, GaugeWithCallback.Callback callback) {
+		for (SpaceSaving.Item<String> item : sketch.top(this.top)) {
+			callback.call(item.weight(), SqlFingerprint.hash(item.key()));
+		}
+	}
+}
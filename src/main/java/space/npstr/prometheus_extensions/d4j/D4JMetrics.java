@@ -28,43 +28,80 @@ import discord4j.common.store.Store;
 import discord4j.common.store.action.read.CountTotalAction;
 import discord4j.common.store.action.read.ReadActions;
 import discord4j.core.GatewayDiscordClient;
+import discord4j.core.event.domain.VoiceStateUpdateEvent;
 import discord4j.core.event.domain.Event;
 import discord4j.core.event.domain.guild.GuildCreateEvent;
 import discord4j.core.event.domain.guild.GuildDeleteEvent;
 import discord4j.core.event.domain.lifecycle.DisconnectEvent;
 import discord4j.core.event.domain.lifecycle.SessionInvalidatedEvent;
+import discord4j.core.object.VoiceState;
 import discord4j.gateway.ShardInfo;
+import io.prometheus.metrics.core.datapoints.GaugeDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Gauge;
 import java.time.Duration;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import space.npstr.prometheus_extensions.DiscordMetrics;
 
 public class D4JMetrics {
 
 	private static final Logger log = LoggerFactory.getLogger(D4JMetrics.class);
+	private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+	private static final Duration TICK_INTERVAL = Duration.ofMinutes(1);
+	// a hung store call would otherwise keep the tick running, and every following tick would be dropped
+	private static final Duration TICK_TIMEOUT = Duration.ofMinutes(5);
+	// how many store reads may run at the same time
+	private static final int STORE_CONCURRENCY = 3;
+	// verify the tracked voice connections against the store every this many ticks
+	private static final long VOICE_RECONCILIATION_TICKS = 10;
 
 	private final DiscordMetrics discordMetrics;
 	private final GatewayDiscordClient gatewayDiscordClient;
+	private final List<EntityCount> entityCounts;
+	private final Gauge tickDuration;
+	private final Counter droppedTicks;
 
-	private final Map<Integer, Set<Long>> unavailableGuilds = new ConcurrentHashMap<>();
+	private final UnavailableGuildsTracker unavailableGuilds;
+	private final VoiceConnectionTracker voiceConnections;
 
+	/**
+	 * @param discordMetrics must not collect its entities from a callback, the store counts are set on
+	 *                       {@link DiscordMetrics#getDiscordEntities()}
+	 */
 	public D4JMetrics(DiscordMetrics discordMetrics, GatewayDiscordClient gatewayDiscordClient) {
+		if (discordMetrics.getDiscordEntities() == null) {
+			throw new IllegalArgumentException("D4JMetrics requires DiscordMetrics created without an entities callback");
+		}
 		this.discordMetrics = discordMetrics;
 		this.gatewayDiscordClient = gatewayDiscordClient;
+		this.tickDuration = discordMetrics.getD4jTickDuration();
+		this.droppedTicks = discordMetrics.getD4jDroppedTicks();
 
+		Gauge entities = discordMetrics.getDiscordEntities();
+		this.entityCounts = List.of(
+			new EntityCount(ReadActions.countChannels(), entities.labelValues("Channel"), "Channel"),
+			new EntityCount(ReadActions.countEmojis(), entities.labelValues("Emoji"), "Emoji"),
+			new EntityCount(ReadActions.countGuilds(), entities.labelValues("Guild"), "Guild"),
+			new EntityCount(ReadActions.countMembers(), entities.labelValues("Member"), "Member"),
+			new EntityCount(ReadActions.countMessages(), entities.labelValues("Message"), "Message"),
+			new EntityCount(ReadActions.countPresences(), entities.labelValues("Presence"), "Presence"),
+			new EntityCount(ReadActions.countRoles(), entities.labelValues("Role"), "Role"),
+			new EntityCount(ReadActions.countUsers(), entities.labelValues("User"), "User"),
+			new EntityCount(ReadActions.countVoiceStates(), entities.labelValues("VoiceState"), "VoiceState")
+		);
+
+		this.unavailableGuilds = new UnavailableGuildsTracker(discordMetrics.getUnavailableGuilds());
 		trackUnavailableGuilds();
 
-		Duration interval = Duration.ofMinutes(1);
+		this.voiceConnections = new VoiceConnectionTracker(discordMetrics.getVoiceChannelsConnected());
+		trackVoiceConnections();
 
-		instrumentUnavailableGuilds(interval);
-		instrumentSessionStartLimits(interval);
-		instrumentEntities(interval);
-		instrumentConnectedVoiceChannels();
+		schedulePeriodicJobs();
 
 		instrumentEvents();
 		instrumentCloseCodes();
@@ -74,105 +111,186 @@ public class D4JMetrics {
 		this.gatewayDiscordClient.getEventDispatcher()
 			.on(GuildDeleteEvent.class)
 			.filter(GuildDeleteEvent::isUnavailable)
-			.doOnNext(event -> unavailableGuilds.compute(event.getShardInfo().getIndex(), (shardId, guildIds) -> {
-				if (guildIds == null) guildIds = new HashSet<>();
-				guildIds.add(event.getGuildId().asLong());
-				return guildIds;
-			}))
+			.doOnNext(event -> this.unavailableGuilds.unavailable(event.getShardInfo().getIndex(), event.getGuildId().asLong()))
 			.doOnError(t -> log.warn("Failed to add unavailable guild", t))
 			.retry()
 			.subscribe();
 
 		this.gatewayDiscordClient.getEventDispatcher()
 			.on(GuildCreateEvent.class)
-			.doOnNext(event ->
-				unavailableGuilds.compute(event.getShardInfo().getIndex(), (shardId, guildIds) -> {
-					if (guildIds == null) return null;
-					guildIds.remove(event.getGuild().getId().asLong());
-					if (guildIds.isEmpty()) return null;
-					return guildIds;
-				})
-			)
+			.doOnNext(event -> this.unavailableGuilds.available(event.getShardInfo().getIndex(), event.getGuild().getId().asLong()))
 			.doOnError(t -> log.warn("Failed to remove unavailable guild", t))
 			.retry()
 			.subscribe();
 
 		this.gatewayDiscordClient.getEventDispatcher()
 			.on(SessionInvalidatedEvent.class)
-			.doOnNext(event -> unavailableGuilds.compute(event.getShardInfo().getIndex(), (shardId, guildIds) -> null))
+			.doOnNext(event -> this.unavailableGuilds.clear(event.getShardInfo().getIndex()))
 			.doOnError(t -> log.warn("Failed to clear unavailable guilds", t))
 			.retry()
 			.subscribe();
 	}
 
-	private void instrumentUnavailableGuilds(Duration interval) {
-		Mono.just(1).repeat().delayElements(interval)
-			.doOnNext(__ -> {
-				for (Map.Entry<Integer, Set<Long>> entry : unavailableGuilds.entrySet()) {
-					int shardId = entry.getKey();
-					Set<Long> guildIds = entry.getValue();
-					this.discordMetrics.getUnavailableGuilds().labelValues(Integer.toString(shardId)).set(guildIds.size());
-				}
+	/**
+	 * All periodic jobs run on a single interval. A tick that comes up while the previous one is still running is
+	 * dropped, so slow store counts can't pile up.
+	 */
+	private void schedulePeriodicJobs() {
+		Flux.interval(TICK_INTERVAL, TICK_INTERVAL)
+			.onBackpressureDrop(__ -> {
+				this.droppedTicks.inc();
+				log.debug("Dropping metrics tick, the previous one is still running");
 			})
-			.doOnError(t -> log.warn("Failed to instrument unavailable guilds", t))
+			.flatMap(this::tick, 1)
 			.subscribe();
 	}
 
-	private void instrumentSessionStartLimits(Duration interval) {
-		Mono.just(1).repeat().delayElements(interval)
-			.flatMap(__ -> gatewayDiscordClient.rest().getGatewayService().getGatewayBot()
-				.onErrorResume(t -> {
-					log.warn("Failed to fetch gateway/bot", t);
-					return Mono.empty();
-				})
-			)
-			.doOnNext(gatewayData -> gatewayData.shards().toOptional().ifPresent(recommendedShards ->
-				this.discordMetrics.getRecommendedShardCount().set(recommendedShards)
-			))
-			.flatMap(gatewayData -> gatewayData.sessionStartLimit().toOptional().map(Mono::just).orElse(Mono.empty()))
-			.doOnNext(sessionStartLimitData -> {
-				this.discordMetrics.getSessionStartLimitTotal().set(sessionStartLimitData.total());
-				this.discordMetrics.getSessionStartLimitRemaining().set(sessionStartLimitData.remaining());
+	private Mono<Void> tick(long tick) {
+		return Mono.defer(() -> {
+				long started = System.nanoTime();
+				Mono<Void> voiceReconciliation = tick % VOICE_RECONCILIATION_TICKS == VOICE_RECONCILIATION_TICKS - 1
+					? reconcileVoiceConnections()
+					: Mono.empty();
+				return Mono.when(countEntities(), fetchSessionStartLimits(), voiceReconciliation)
+					.doFinally(__ -> this.tickDuration.set((System.nanoTime() - started) / NANOS_PER_SECOND));
 			})
-			.doOnError(t -> log.warn("Failed to fetch session start limits", t))
-			.subscribe();
+			.timeout(TICK_TIMEOUT)
+			.onErrorResume(t -> {
+				if (t instanceof TimeoutException) {
+					log.warn("Metrics tick {} did not finish within {}, cancelled it", tick, TICK_TIMEOUT);
+				} else {
+					log.warn("Failed to run metrics tick", t);
+				}
+				return Mono.empty();
+			});
 	}
 
-	private void instrumentConnectedVoiceChannels() {
-		// TODO
+	private Mono<Void> fetchSessionStartLimits() {
+		return gatewayDiscordClient.rest().getGatewayService().getGatewayBot()
+			.doOnNext(gatewayData -> {
+				gatewayData.shards().toOptional().ifPresent(recommendedShards ->
+					this.discordMetrics.getRecommendedShardCount().set(recommendedShards)
+				);
+				gatewayData.sessionStartLimit().toOptional().ifPresent(sessionStartLimitData -> {
+					this.discordMetrics.getSessionStartLimitTotal().set(sessionStartLimitData.total());
+					this.discordMetrics.getSessionStartLimitRemaining().set(sessionStartLimitData.remaining());
+				});
+			})
+			.onErrorResume(t -> {
+				log.warn("Failed to fetch gateway/bot", t);
+				return Mono.empty();
+			})
+			.then();
+	}
+
+	private void trackVoiceConnections() {
+		long selfId = this.gatewayDiscordClient.getSelfId().asLong();
+		this.gatewayDiscordClient.getEventDispatcher()
+			.on(VoiceStateUpdateEvent.class)
+			.filter(event -> event.getCurrent().getUserId().asLong() == selfId)
+			.doOnNext(event -> {
+				int shardId = event.getShardInfo().getIndex();
+				long guildId = event.getCurrent().getGuildId().asLong();
+				if (event.getCurrent().getChannelId().isPresent()) { // includes moves
+					this.voiceConnections.connected(shardId, guildId);
+				} else {
+					this.voiceConnections.disconnected(shardId, guildId);
+				}
+			})
+			.doOnError(t -> log.warn("Failed to track voice connection", t))
+			.retry()
+			.subscribe();
+
+		// Discord4J stores the voice states of a created guild without dispatching voice state updates for them, so
+		// look ours up. This restores the connections dropped by an outage or an invalidated session below, only those
+		// guilds are looked up, not every guild created by a READY.
+		this.gatewayDiscordClient.getEventDispatcher()
+			.on(GuildCreateEvent.class)
+			.filter(event -> this.voiceConnections.takeDropped(event.getShardInfo().getIndex(), event.getGuild().getId().asLong()))
+			.flatMap(event -> reconcileVoiceConnection(event.getShardInfo().getIndex(), event.getGuild().getId().asLong()),
+				STORE_CONCURRENCY)
+			.doOnError(t -> log.warn("Failed to restore voice connection", t))
+			.retry()
+			.subscribe();
+
+		this.gatewayDiscordClient.getEventDispatcher()
+			.on(GuildDeleteEvent.class)
+			.doOnNext(event -> {
+				int shardId = event.getShardInfo().getIndex();
+				long guildId = event.getGuildId().asLong();
+				if (event.isUnavailable()) {
+					this.voiceConnections.unavailable(shardId, guildId);
+				} else {
+					this.voiceConnections.disconnected(shardId, guildId);
+				}
+			})
+			.doOnError(t -> log.warn("Failed to remove voice connection", t))
+			.retry()
+			.subscribe();
+
+		this.gatewayDiscordClient.getEventDispatcher()
+			.on(SessionInvalidatedEvent.class)
+			.doOnNext(event -> this.voiceConnections.clear(event.getShardInfo().getIndex()))
+			.doOnError(t -> log.warn("Failed to clear voice connections", t))
+			.retry()
+			.subscribe();
 	}
 
-	private void instrumentEntities(Duration interval) {
-		instrumentEntity(interval, ReadActions.countChannels(), "Channel");
-		instrumentEntity(interval, ReadActions.countEmojis(), "Emoji");
-		instrumentEntity(interval, ReadActions.countGuilds(), "Guild");
-		instrumentEntity(interval, ReadActions.countMembers(), "Member");
-		instrumentEntity(interval, ReadActions.countMessages(), "Message");
-		instrumentEntity(interval, ReadActions.countPresences(), "Presence");
-		instrumentEntity(interval, ReadActions.countRoles(), "Role");
-		instrumentEntity(interval, ReadActions.countUsers(), "User");
-		instrumentEntity(interval, ReadActions.countVoiceStates(), "VoiceState");
+	/**
+	 * Looks up our own voice state of each tracked connection in the store and drops the ones we are no longer
+	 * connected to. This only touches as many store entries as we have connections, instead of scanning all voice
+	 * states.
+	 */
+	private Mono<Void> reconcileVoiceConnections() {
+		return Flux.fromIterable(this.voiceConnections.connections())
+			.flatMap(connection -> reconcileVoiceConnection(connection.shardId(), connection.guildId()), STORE_CONCURRENCY)
+			.then();
 	}
 
-	private void instrumentEntity(Duration interval, CountTotalAction action, String label) {
+	/**
+	 * Tracks or drops the connection in a guild according to our own voice state in the store.
+	 */
+	private Mono<Void> reconcileVoiceConnection(int shardId, long guildId) {
 		Store store = gatewayDiscordClient.getGatewayResources().getStore();
-		Mono.just(1).repeat().delayElements(interval)
-			.filterWhen(__ -> allShardsUp()
-				.onErrorResume(t -> {
-					logEntityCountError(t, label);
-					return Mono.just(false);
-				})
-			)
-			.flatMap(__ -> Mono.from(store.execute(action))
-				.onErrorResume(t -> logEntityCountError(t, label))
-			)
-			.doOnNext(count -> doInstrument(count, label))
-			.doOnError(t -> logEntityCountError(t, label))
-			.subscribe();
+		long selfId = this.gatewayDiscordClient.getSelfId().asLong();
+		return Mono.from(store.execute(ReadActions.getVoiceStateById(guildId, selfId)))
+			.map(data -> new VoiceState(this.gatewayDiscordClient, data).getChannelId().isPresent())
+			.defaultIfEmpty(false)
+			.doOnNext(isConnected -> {
+				if (isConnected) {
+					this.voiceConnections.connected(shardId, guildId);
+				} else {
+					this.voiceConnections.disconnected(shardId, guildId);
+				}
+			})
+			.onErrorResume(t -> {
+				log.warn("Failed to reconcile voice connection in guild {}", guildId, t);
+				return Mono.empty();
+			})
+			.then();
 	}
 
-	private void doInstrument(long count, String label) {
-		this.discordMetrics.getDiscordEntities().labelValues(label).set(count);
+	/**
+	 * Checks the shards once, then runs the store counts with a bounded concurrency.
+	 */
+	private Mono<Void> countEntities() {
+		return allShardsUp()
+			.onErrorResume(t -> {
+				log.warn("Failed to check whether all shards are up", t);
+				return Mono.just(false);
+			})
+			.filter(Boolean::booleanValue)
+			.flatMapMany(__ -> Flux.fromIterable(this.entityCounts))
+			.flatMap(this::countEntity, STORE_CONCURRENCY)
+			.then();
+	}
+
+	private Mono<Void> countEntity(EntityCount entityCount) {
+		Store store = gatewayDiscordClient.getGatewayResources().getStore();
+		return Mono.from(store.execute(entityCount.action()))
+			.doOnNext(count -> entityCount.gauge().set(count))
+			.onErrorResume(t -> logEntityCountError(t, entityCount.label()))
+			.then();
 	}
 
 	private <T> Mono<T> logEntityCountError(Throwable throwable, String label) {
@@ -193,7 +311,7 @@ public class D4JMetrics {
 	private void instrumentEvents() {
 		this.gatewayDiscordClient.getEventDispatcher()
 			.on(Event.class)
-			.doOnNext(event -> this.discordMetrics.getEvents().labelValues(event.getClass().getSimpleName()).inc())
+			.doOnNext(event -> this.discordMetrics.countEvent(event.getClass()))
 			.doOnError(t -> log.warn("Failed to track event", t))
 			.retry()
 			.subscribe();
@@ -221,4 +339,6 @@ public class D4JMetrics {
 	private String formatShard(ShardInfo shardInfo) {
 		return "[" + shardInfo.getIndex() + " / " + shardInfo.getCount() + "]";
 	}
+
+	private record EntityCount(CountTotalAction action, GaugeDataPoint gauge, String label) {}
 }
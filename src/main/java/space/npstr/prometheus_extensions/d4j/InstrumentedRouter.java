@@ -27,101 +27,186 @@ package space.npstr.prometheus_extensions.d4j;
 import discord4j.common.ReactorResources;
 import discord4j.rest.http.client.ClientException;
 import discord4j.rest.http.client.ClientResponse;
-import discord4j.rest.http.client.DiscordWebClient;
 import discord4j.rest.json.response.ErrorResponse;
 import discord4j.rest.request.DiscordWebRequest;
 import discord4j.rest.request.DiscordWebResponse;
 import discord4j.rest.request.Router;
 import discord4j.rest.request.RouterOptions;
-import io.netty.handler.codec.http.HttpMethod;
-import io.netty.handler.codec.http.HttpResponseStatus;
-import java.time.Duration;
-import java.time.Instant;
+import discord4j.rest.route.Route;
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
+import io.prometheus.metrics.core.metrics.Histogram;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Mono;
-import reactor.util.context.ContextView;
 import space.npstr.prometheus_extensions.DiscordMetrics;
+import space.npstr.prometheus_extensions.DiscordMetricsOptions;
 
 /**
  * Collect metrics about the executed web requests against the Discord API
+ * <p>
+ * Rate limits are recorded on the HTTP client instead, see {@link RateLimitRecorder}.
  */
 public class InstrumentedRouter implements Router {
 
 	private static final Logger log = LoggerFactory.getLogger(InstrumentedRouter.class);
-	private static final double MILLIS_PER_SECOND = 1000.0;
+	private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+	static final int NO_ERROR_CODE = Integer.MIN_VALUE;
+	// routes are static constants, but custom ones could be created per request, so don't let the cache run away
+	private static final int MAX_CACHED_ROUTES = 1024;
+	private static final int MAX_CACHED_ERRORS_PER_ROUTE = 64;
 
 	private final DiscordMetrics discordMetrics;
 	private final Router delegate;
 	private final ReactorResources reactorResources;
+	private final ConcurrentMap<Route, RouteMetrics> routeMetrics = new ConcurrentHashMap<>();
+	private final boolean restRequestsEnabled;
 
 	public InstrumentedRouter(DiscordMetrics discordMetrics, Router delegate, RouterOptions routerOptions) {
 		this.discordMetrics = discordMetrics;
 		this.delegate = delegate;
 		this.reactorResources = routerOptions.getReactorResources();
+		this.restRequestsEnabled = discordMetrics.getOptions().getRestRequests() != DiscordMetricsOptions.MetricType.DISABLED;
 	}
 
 	@Override
 	public DiscordWebResponse exchange(DiscordWebRequest request) {
 		DiscordWebResponse exchange = delegate.exchange(request);
 
-		Mono<ClientResponse> instrumentedResponse = exchange.mono()
-			.doOnNext(response -> instrumentNext(response, request))
-			.doOnError(error -> instrumentError(error, request));
+		// timed from subscription, so this includes the time spent waiting for the rate limiter
+		Mono<ClientResponse> instrumentedResponse = Mono.defer(() -> {
+			long started = System.nanoTime();
+			return exchange.mono()
+				.doOnNext(response -> instrumentNext(response, request, started))
+				.doOnError(error -> instrumentError(error, request, started));
+		});
 
 		return new DiscordWebResponse(instrumentedResponse, reactorResources);
 	}
 
-	private void instrumentNext(ClientResponse response, DiscordWebRequest request) {
-		HttpResponseStatus status = response.getHttpResponse().status();
-		HttpMethod method = request.getRoute().getMethod();
-		String uriTemplate = request.getRoute().getUriTemplate();
-		ContextView contextView = response.getHttpResponse().currentContextView();
-		Instant requestStarted = Instant.ofEpochMilli(contextView.get(DiscordWebClient.KEY_REQUEST_TIMESTAMP));
-		long responseTimeMillis = Duration.between(requestStarted, Instant.now()).toMillis();
-		double responseTimeSeconds = responseTimeMillis / MILLIS_PER_SECOND;
-
-		log.trace("{} {} {}ms {}", method, uriTemplate, responseTimeMillis, status.code());
-		this.discordMetrics.getDiscordRestRequests()
-			.labelValues(method.name(), uriTemplate, Integer.toString(status.code()), "")
-			.observe(responseTimeSeconds);
-		this.discordMetrics.getDiscordRestRequestResponseTime()
-			.observe(responseTimeSeconds);
+	private void instrumentNext(ClientResponse response, DiscordWebRequest request, long started) {
+		int status = response.getHttpResponse().status().code();
+		long responseTimeNanos = System.nanoTime() - started;
+
+		if (log.isTraceEnabled()) {
+			Route route = request.getRoute();
+			log.trace("{} {} {}ms {}", route.getMethod(), route.getUriTemplate(), responseTimeNanos / 1_000_000, status);
+		}
+		observe(request.getRoute(), status, NO_ERROR_CODE, responseTimeNanos);
 	}
 
-	private void instrumentError(Throwable throwable, DiscordWebRequest request) {
-		HttpMethod method = request.getRoute().getMethod();
-		String uriTemplate = request.getRoute().getUriTemplate();
+	private void instrumentError(Throwable throwable, DiscordWebRequest request, long started) {
+		long responseTimeNanos = System.nanoTime() - started;
+		Route route = request.getRoute();
 		if (throwable instanceof ClientException) {
 			ClientException error = (ClientException) throwable;
-			HttpResponseStatus status = error.getStatus();
+			int status = error.getStatus().code();
 			Optional<Map<String, Object>> errorResponseContent = error.getErrorResponse().map(ErrorResponse::getFields);
 			int errorCode = errorResponseContent.map(it -> (Integer) it.get("code")).orElse(-1);
 			String errorMessage = errorResponseContent.map(it -> (String) it.get("message")).orElse(null);
 
-			ContextView contextView = error.getResponse().currentContextView();
-			Instant requestStarted = Instant.ofEpochMilli(contextView.get(DiscordWebClient.KEY_REQUEST_TIMESTAMP));
-			long responseTimeMillis = Duration.between(requestStarted, Instant.now()).toMillis();
-			double responseTimeSeconds = responseTimeMillis / MILLIS_PER_SECOND;
-
-			log.trace("{} {} {}ms {} {} {}", method, uriTemplate, responseTimeMillis, status.code(), errorCode, errorMessage);
-			this.discordMetrics.getDiscordRestRequests()
-				.labelValues(method.name(), uriTemplate, Integer.toString(status.code()), Integer.toString(errorCode))
-				.observe(responseTimeSeconds);
-			this.discordMetrics.getDiscordRestRequestResponseTime()
-				.observe(responseTimeSeconds);
+			if (log.isTraceEnabled()) {
+				log.trace("{} {} {}ms {} {} {}", route.getMethod(), route.getUriTemplate(), responseTimeNanos / 1_000_000,
+					status, errorCode, errorMessage);
+			}
+			observe(route, status, errorCode, responseTimeNanos);
 
-			if (status.code() == 401) {
+			if (status == 401) {
 				log.warn("Encountered invalid token on route {} {} with message {}, request: {}",
-					method, uriTemplate, errorMessage, request, throwable);
+					route.getMethod(), route.getUriTemplate(), errorMessage, request, throwable);
 			}
 		} else {
-			log.warn("Failed request to {} {}", method, uriTemplate, throwable);
-			this.discordMetrics.getDiscordRestHardFailures()
-				.labelValues(method.name(), uriTemplate)
-				.inc();
+			log.warn("Failed request to {} {}", route.getMethod(), route.getUriTemplate(), throwable);
+			routeMetrics(route).hardFailures().inc();
+		}
+	}
+
+	/**
+	 * @param errorCode the Discord error code, or {@link #NO_ERROR_CODE} for successful responses
+	 */
+	void observe(Route route, int status, int errorCode, long responseTimeNanos) {
+		double responseTimeSeconds = responseTimeNanos / NANOS_PER_SECOND;
+		if (this.restRequestsEnabled) {
+			routeMetrics(route).requests(status, errorCode).observe(responseTimeSeconds);
+		}
+		Histogram responseTime = this.discordMetrics.getDiscordRestRequestResponseTime();
+		if (responseTime != null) {
+			responseTime.observe(responseTimeSeconds);
+		}
+	}
+
+	private RouteMetrics routeMetrics(Route route) {
+		RouteMetrics metrics = this.routeMetrics.get(route);
+		if (metrics != null) {
+			return metrics;
+		}
+		if (this.routeMetrics.size() >= MAX_CACHED_ROUTES) {
+			return new RouteMetrics(route);
+		}
+		return this.routeMetrics.computeIfAbsent(route, RouteMetrics::new);
+	}
+
+	/**
+	 * The data points of a route, resolved once.
+	 */
+	private final class RouteMetrics {
+
+		private static final int MIN_STATUS = 100;
+		private static final int MAX_STATUS = 599;
+
+		private final String method;
+		private final String uriTemplate;
+		// successful responses, indexed by status - MIN_STATUS
+		private final AtomicReferenceArray<DistributionDataPoint> byStatus =
+			new AtomicReferenceArray<>(MAX_STATUS - MIN_STATUS + 1);
+		// error responses, keyed by status and error code
+		private final ConcurrentMap<Long, DistributionDataPoint> byError = new ConcurrentHashMap<>();
+		private volatile CounterDataPoint hardFailures;
+
+		private RouteMetrics(Route route) {
+			this.method = route.getMethod().name();
+			this.uriTemplate = route.getUriTemplate();
+		}
+
+		private DistributionDataPoint requests(int status, int errorCode) {
+			if (errorCode == NO_ERROR_CODE && status >= MIN_STATUS && status <= MAX_STATUS) {
+				DistributionDataPoint dataPoint = this.byStatus.get(status - MIN_STATUS);
+				if (dataPoint == null) {
+					// racing resolutions return the same data point
+					dataPoint = resolve(status, "");
+					this.byStatus.set(status - MIN_STATUS, dataPoint);
+				}
+				return dataPoint;
+			}
+
+			long key = ((long) status << 32) | (errorCode & 0xFFFFFFFFL);
+			DistributionDataPoint dataPoint = this.byError.get(key);
+			if (dataPoint != null) {
+				return dataPoint;
+			}
+			String error = errorCode == NO_ERROR_CODE ? "" : Integer.toString(errorCode);
+			if (this.byError.size() >= MAX_CACHED_ERRORS_PER_ROUTE) {
+				return resolve(status, error);
+			}
+			return this.byError.computeIfAbsent(key, __ -> resolve(status, error));
+		}
+
+		private DistributionDataPoint resolve(int status, String errorCode) {
+			return discordMetrics.discordRestRequest(this.method, this.uriTemplate, Integer.toString(status), errorCode);
+		}
+
+		private CounterDataPoint hardFailures() {
+			CounterDataPoint dataPoint = this.hardFailures;
+			if (dataPoint == null) {
+				dataPoint = discordMetrics.getDiscordRestHardFailures().labelValues(this.method, this.uriTemplate);
+				this.hardFailures = dataPoint;
+			}
+			return dataPoint;
 		}
 	}
 }
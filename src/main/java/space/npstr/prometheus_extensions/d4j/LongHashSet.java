@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.d4j;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open addressing hash set of primitive longs, so tracking snowflakes does not box them. Discord4J does not
+ * bring a primitive collections library, and we don't want to force one on its users.
+ * <p>
+ * Not thread safe.
+ */
+class LongHashSet {
+
+	private static final int MIN_CAPACITY = 16;
+	private static final long EMPTY = 0;
+
+	// 0 marks an empty slot, so it is tracked on the side
+	private long[] keys;
+	private boolean containsZero = false;
+	private int size = 0;
+	private int mask;
+
+	LongHashSet() {
+		this.keys = new long[MIN_CAPACITY];
+		this.mask = MIN_CAPACITY - 1;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	boolean contains(final long key) {
+		if (key == EMPTY) {
+			return this.containsZero;
+		}
+		for (int slot = slot(key); ; slot = (slot + 1) & this.mask) {
+			final long current = this.keys[slot];
+			if (current == EMPTY) {
+				return false;
+			}
+			if (current == key) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the key was not present yet
+	 */
+	boolean add(final long key) {
+		if (key == EMPTY) {
+			if (this.containsZero) {
+				return false;
+			}
+			this.containsZero = true;
+			this.size++;
+			return true;
+		}
+		int slot = slot(key);
+		for (long current = this.keys[slot]; current != EMPTY; current = this.keys[slot]) {
+			if (current == key) {
+				return false;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		this.keys[slot] = key;
+		this.size++;
+		// keep the load factor at or below 1/2
+		if (this.size * 2 > this.keys.length) {
+			resize(this.keys.length * 2);
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the key was present
+	 */
+	boolean remove(final long key) {
+		if (key == EMPTY) {
+			if (!this.containsZero) {
+				return false;
+			}
+			this.containsZero = false;
+			this.size--;
+			return true;
+		}
+		for (int slot = slot(key); ; slot = (slot + 1) & this.mask) {
+			final long current = this.keys[slot];
+			if (current == EMPTY) {
+				return false;
+			}
+			if (current == key) {
+				shiftBack(slot);
+				this.size--;
+				return true;
+			}
+		}
+	}
+
+	long[] toArray() {
+		final long[] result = new long[this.size];
+		int i = 0;
+		if (this.containsZero) {
+			result[i++] = EMPTY;
+		}
+		for (final long key : this.keys) {
+			if (key != EMPTY) {
+				result[i++] = key;
+			}
+		}
+		return result;
+	}
+
+	void clear() {
+		// give the memory of large sets back, for example after an outage
+		if (this.keys.length > MIN_CAPACITY) {
+			this.keys = new long[MIN_CAPACITY];
+			this.mask = MIN_CAPACITY - 1;
+		} else {
+			Arrays.fill(this.keys, EMPTY);
+		}
+		this.containsZero = false;
+		this.size = 0;
+	}
+
+	/**
+	 * Removes a key by moving back the keys of its probe sequence, so lookups never need tombstones.
+	 */
+	private void shiftBack(int slot) {
+		int next = slot;
+		while (true) {
+			next = (next + 1) & this.mask;
+			final long current = this.keys[next];
+			if (current == EMPTY) {
+				this.keys[slot] = EMPTY;
+				return;
+			}
+			final int home = slot(current);
+			// move the key unless its home slot lies cyclically in (slot, next]
+			if (slot <= next ? (home <= slot || home > next) : (home <= slot && home > next)) {
+				this.keys[slot] = current;
+				slot = next;
+			}
+		}
+	}
+
+	private void resize(final int capacity) {
+		final long[] oldKeys = this.keys;
+		this.keys = new long[capacity];
+		this.mask = capacity - 1;
+		for (final long key : oldKeys) {
+			if (key != EMPTY) {
+				int slot = slot(key);
+				while (this.keys[slot] != EMPTY) {
+					slot = (slot + 1) & this.mask;
+				}
+				this.keys[slot] = key;
+			}
+		}
+	}
+
+	private int slot(final long key) {
+		// snowflakes are sequential in their high bits, mix them so the low bits are spread well
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & this.mask;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.d4j;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.datapoints.GaugeDataPoint;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.netty.http.client.HttpClient;
+import space.npstr.prometheus_extensions.DiscordMetrics;
+
+/**
+ * Records the rate limit headers of Discord REST responses.
+ * <p>
+ * Discord4J retries 429 responses inside its request stream, so a {@link discord4j.rest.request.Router} only sees the
+ * ones that are surfaced to the caller. The recorder hooks into the HTTP client instead, which sees every response,
+ * see {@link #instrument(DiscordMetrics, HttpClient)}.
+ * <p>
+ * See <a href="https://discord.com/developers/docs/topics/rate-limits">Discord's rate limit docs</a>
+ */
+public final class RateLimitRecorder {
+
+	private static final Logger log = LoggerFactory.getLogger(RateLimitRecorder.class);
+
+	static final int TOO_MANY_REQUESTS = 429;
+	// buckets are opaque ids handed out by Discord, we can't rely on them being few
+	static final int MAX_BUCKETS = 256;
+
+	private static final String BUCKET = "X-RateLimit-Bucket";
+	private static final String REMAINING = "X-RateLimit-Remaining";
+	private static final String RESET_AFTER = "X-RateLimit-Reset-After";
+	private static final String GLOBAL = "X-RateLimit-Global";
+	private static final String SCOPE = "X-RateLimit-Scope";
+	private static final String RETRY_AFTER = "Retry-After";
+
+	private final DiscordMetrics.RateLimits rateLimits;
+	private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+	private final CounterDataPoint globalHits;
+	private final CounterDataPoint sharedHits;
+	private final CounterDataPoint userHits;
+
+	/**
+	 * Record the rate limits of every response received by the client into the rate limit metrics of
+	 * {@link DiscordMetrics}, which are registered by the first call. Use the returned client for Discord4J:
+	 * <pre>{@code
+	 * ReactorResources.builder()
+	 *     .httpClient(RateLimitRecorder.instrument(discordMetrics, ReactorResources.newHttpClient()))
+	 *     .build();
+	 * }</pre>
+	 */
+	public static HttpClient instrument(DiscordMetrics discordMetrics, HttpClient httpClient) {
+		RateLimitRecorder recorder = new RateLimitRecorder(discordMetrics);
+		return httpClient.doOnResponse((response, connection) ->
+			recorder.record(response.status().code(), response.responseHeaders()));
+	}
+
+	RateLimitRecorder(DiscordMetrics discordMetrics) {
+		this.rateLimits = discordMetrics.getRateLimits();
+		this.globalHits = this.rateLimits.getHits().labelValues("global");
+		this.sharedHits = this.rateLimits.getHits().labelValues("shared");
+		this.userHits = this.rateLimits.getHits().labelValues("user");
+	}
+
+	void record(int status, HttpHeaders headers) {
+		try {
+			recordBucket(headers);
+			if (status == TOO_MANY_REQUESTS) {
+				recordHit(headers);
+			}
+		} catch (NumberFormatException e) {
+			log.debug("Unparseable rate limit headers {}", headers, e);
+		}
+	}
+
+	private void recordBucket(HttpHeaders headers) {
+		String bucketId = headers.get(BUCKET);
+		if (bucketId == null) {
+			return;
+		}
+		Bucket bucket = bucket(bucketId);
+		if (bucket == null) {
+			return;
+		}
+		String remaining = headers.get(REMAINING);
+		if (remaining != null) {
+			bucket.remaining.set(Integer.parseInt(remaining));
+		}
+		String resetAfter = headers.get(RESET_AFTER);
+		if (resetAfter != null) {
+			bucket.resetAfter.set(Double.parseDouble(resetAfter));
+		}
+	}
+
+	private void recordHit(HttpHeaders headers) {
+		String scope = headers.get(SCOPE);
+		if (scope == null) { // older responses only flag global ones
+			scope = Boolean.parseBoolean(headers.get(GLOBAL)) ? "global" : "user";
+		}
+		switch (scope) {
+			case "global" -> this.globalHits.inc();
+			case "shared" -> this.sharedHits.inc();
+			default -> this.userHits.inc();
+		}
+
+		String retryAfter = headers.get(RETRY_AFTER);
+		if (retryAfter != null) {
+			this.rateLimits.getRetryAfter().observe(Double.parseDouble(retryAfter));
+		}
+	}
+
+	/**
+	 * @return null if we are tracking too many buckets already
+	 */
+	private Bucket bucket(String bucketId) {
+		Bucket bucket = this.buckets.get(bucketId);
+		if (bucket != null) {
+			return bucket;
+		}
+		if (this.buckets.size() >= MAX_BUCKETS) {
+			return null;
+		}
+		return this.buckets.computeIfAbsent(bucketId, Bucket::new);
+	}
+
+	private final class Bucket {
+
+		private final GaugeDataPoint remaining;
+		private final GaugeDataPoint resetAfter;
+
+		private Bucket(String bucketId) {
+			this.remaining = rateLimits.getBucketRemaining().labelValues(bucketId);
+			this.resetAfter = rateLimits.getBucketResetAfter().labelValues(bucketId);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.d4j;
+
+import io.prometheus.metrics.core.datapoints.GaugeDataPoint;
+import io.prometheus.metrics.core.metrics.Gauge;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks the unavailable guilds of each shard and updates the gauge of the shard right away, so it is exact in real
+ * time and drops back to 0 when the shard recovers.
+ */
+class UnavailableGuildsTracker {
+
+	private final Gauge unavailableGuilds;
+	private final ConcurrentMap<Integer, Shard> shards = new ConcurrentHashMap<>();
+
+	UnavailableGuildsTracker(final Gauge unavailableGuilds) {
+		this.unavailableGuilds = unavailableGuilds;
+	}
+
+	void unavailable(final int shardId, final long guildId) {
+		final Shard shard = this.shards.computeIfAbsent(shardId, Shard::new);
+		synchronized (shard) {
+			if (shard.guildIds.add(guildId)) {
+				shard.publish();
+			}
+		}
+	}
+
+	void available(final int shardId, final long guildId) {
+		final Shard shard = this.shards.get(shardId);
+		if (shard == null) { // never had any unavailable guilds, the common case
+			return;
+		}
+		synchronized (shard) {
+			if (shard.guildIds.remove(guildId)) {
+				shard.publish();
+			}
+		}
+	}
+
+	void clear(final int shardId) {
+		final Shard shard = this.shards.get(shardId);
+		if (shard == null) {
+			return;
+		}
+		synchronized (shard) {
+			shard.guildIds.clear();
+			shard.publish();
+		}
+	}
+
+	private final class Shard {
+
+		// guarded by this
+		private final LongHashSet guildIds = new LongHashSet();
+		private final GaugeDataPoint gauge;
+
+		private Shard(final int shardId) {
+			this.gauge = unavailableGuilds.labelValues(Integer.toString(shardId));
+		}
+
+		// guarded by this
+		private void publish() {
+			this.gauge.set(this.guildIds.size());
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.d4j;
+
+import io.prometheus.metrics.core.datapoints.GaugeDataPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracks the guilds where we are connected to a voice channel from our own voice state updates, so the connected
+ * voice channels gauge is exact in real time.
+ * <p>
+ * Updates may get lost, for example while a shard is resuming, so the tracked connections are verified against the
+ * store from time to time, see {@link #connections()}. Connections dropped with an unavailable guild or a session are
+ * remembered, so only those guilds have to be looked up in the store when they are created again, see
+ * {@link #takeDropped(int, long)}.
+ */
+class VoiceConnectionTracker {
+
+	private final GaugeDataPoint connectedVoiceChannels;
+
+	// connected guild ids indexed by shard id, guarded by this
+	private LongHashSet[] connectedGuilds = new LongHashSet[1];
+	// guild ids whose connection was dropped with the guild or the session, indexed by shard id, guarded by this
+	private LongHashSet[] droppedGuilds = new LongHashSet[1];
+	// guarded by this
+	private int connected = 0;
+
+	VoiceConnectionTracker(final GaugeDataPoint connectedVoiceChannels) {
+		this.connectedVoiceChannels = connectedVoiceChannels;
+	}
+
+	synchronized void connected(final int shardId, final long guildId) {
+		if (guilds(shardId).add(guildId)) {
+			this.connected++;
+			publish();
+		}
+	}
+
+	synchronized void disconnected(final int shardId, final long guildId) {
+		dropped(shardId).remove(guildId);
+		if (guilds(shardId).remove(guildId)) {
+			this.connected--;
+			publish();
+		}
+	}
+
+	/**
+	 * The guild became unavailable, a connection in it is dropped until the guild is created again
+	 */
+	synchronized void unavailable(final int shardId, final long guildId) {
+		if (guilds(shardId).remove(guildId)) {
+			dropped(shardId).add(guildId);
+			this.connected--;
+			publish();
+		}
+	}
+
+	/**
+	 * The session was invalidated, all connections of the shard are dropped until their guilds are created again
+	 */
+	synchronized void clear(final int shardId) {
+		final LongHashSet guilds = guilds(shardId);
+		final LongHashSet dropped = dropped(shardId);
+		for (final long guildId : guilds.toArray()) {
+			dropped.add(guildId);
+		}
+		this.connected -= guilds.size();
+		guilds.clear();
+		publish();
+	}
+
+	/**
+	 * @return whether a connection in the guild was dropped, it is forgotten either way
+	 */
+	synchronized boolean takeDropped(final int shardId, final long guildId) {
+		return dropped(shardId).remove(guildId);
+	}
+
+	/**
+	 * @return a copy of the tracked connections, to be verified against the store
+	 */
+	synchronized List<Connection> connections() {
+		final List<Connection> connections = new ArrayList<>(this.connected);
+		for (int shardId = 0; shardId < this.connectedGuilds.length; shardId++) {
+			final LongHashSet guilds = this.connectedGuilds[shardId];
+			if (guilds != null) {
+				for (final long guildId : guilds.toArray()) {
+					connections.add(new Connection(shardId, guildId));
+				}
+			}
+		}
+		return connections;
+	}
+
+	// guarded by this
+	private LongHashSet guilds(final int shardId) {
+		if (shardId >= this.connectedGuilds.length) {
+			this.connectedGuilds = Arrays.copyOf(this.connectedGuilds, shardId + 1);
+		}
+		LongHashSet guilds = this.connectedGuilds[shardId];
+		if (guilds == null) {
+			guilds = new LongHashSet();
+			this.connectedGuilds[shardId] = guilds;
+		}
+		return guilds;
+	}
+
+	// guarded by this
+	private LongHashSet dropped(final int shardId) {
+		if (shardId >= this.droppedGuilds.length) {
+			this.droppedGuilds = Arrays.copyOf(this.droppedGuilds, shardId + 1);
+		}
+		LongHashSet guilds = this.droppedGuilds[shardId];
+		if (guilds == null) {
+			guilds = new LongHashSet();
+			this.droppedGuilds[shardId] = guilds;
+		}
+		return guilds;
+	}
+
+	// guarded by this
+	private void publish() {
+		this.connectedVoiceChannels.set(this.connected);
+	}
+
+	record Connection(int shardId, long guildId) {}
+}
@@ -24,11 +24,15 @@
 
 package space.npstr.prometheus_extensions.jda;
 
-import gnu.trove.procedure.TObjectProcedure;
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.concurrent.atomic.AtomicInteger;
+import gnu.trove.map.TLongObjectMap;
+import io.prometheus.metrics.core.metrics.Gauge;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.sharding.ShardManager;
@@ -38,51 +42,244 @@ import org.slf4j.LoggerFactory;
 
 /**
  * BiG uGlY hAcKs in here
+ * <p>
+ * The shards are scanned in parallel on a bounded pool. In exact mode, each shard's user cache lock is only held to
+ * copy the raw ids into a buffer of that shard, which is reused between runs, and the ids are sorted and merged
+ * outside the locks. In approximate mode, the ids are added to the sketch of the shard while holding the lock, which
+ * costs about the same as copying them, so no id buffers are kept around.
  */
 class DistinctUsersCounter {
 
 	private static final Logger log = LoggerFactory.getLogger(DistinctUsersCounter.class);
+	private static final double NANOS_PER_SECOND = 1_000_000_000.0;
 
 	private final ShardManager shardManager;
+	private final boolean approximate;
+	private final int precision;
+	private final ForkJoinPool pool;
 
-	private final AtomicInteger lastUserCount = new AtomicInteger(0);
+	private final Gauge scanDuration;
+	private final Gauge lockHoldMax;
 
-	DistinctUsersCounter(final ShardManager shardManager) {
+	// scratch space, indexed by the position of the shard in the scan, guarded by this
+	private long[] lockHolds = new long[0];
+	// exact mode only
+	private long[][] shardIds = new long[0][];
+	private int[] shardSizes = new int[0];
+	// approximate mode only
+	private HyperLogLog[] shardSketches = new HyperLogLog[0];
+	private final HyperLogLog mergedSketch;
+
+	DistinctUsersCounter(final ShardManager shardManager, final JdaMetricsOptions options, final PrometheusRegistry registry) {
 		this.shardManager = shardManager;
+		this.approximate = options.getDistinctUsersMode() == DistinctUsersMode.APPROXIMATE;
+		this.precision = HyperLogLog.precisionFor(options.getApproximateDistinctUsersError());
+		this.mergedSketch = this.approximate ? new HyperLogLog(this.precision) : null;
+		this.pool = new ForkJoinPool(options.getDistinctUsersParallelism(), DistinctUsersCounter::newWorker, null, false);
+
+		this.scanDuration = Gauge.builder()
+			.name("jda_distinct_users_scan_seconds")
+			.help("Duration of the last distinct users scan")
+			.register(registry);
+
+		this.lockHoldMax = Gauge.builder()
+			.name("jda_distinct_users_lock_hold_max_seconds")
+			.help("Longest single user cache lock hold of the last distinct users scan")
+			.register(registry);
+	}
+
+	private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+		ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+		worker.setName("distinct-users-counter-" + worker.getPoolIndex());
+		return worker;
+	}
+
+	/**
+	 * Stops the scan threads, counting fails afterwards
+	 */
+	void shutdown() {
+		this.pool.shutdown();
 	}
 
-	public int count() {
-		final long now = System.currentTimeMillis();
-		final int distinctUsers = countDistinctUsers(this.shardManager.getShards(), this.lastUserCount);
-		log.debug("Distinct users counted: {} in {}ms", distinctUsers, System.currentTimeMillis() - now);
-		this.lastUserCount.set(distinctUsers);
+	public synchronized int count() {
+		final long started = System.nanoTime();
+		final List<JDA> shards = this.shardManager.getShards();
+		final int distinctUsers = countDistinctUsers(shards);
+		final long duration = System.nanoTime() - started;
+
+		long longestLockHold = 0;
+		for (int i = 0; i < shards.size() && i < this.lockHolds.length; i++) {
+			longestLockHold = Math.max(longestLockHold, this.lockHolds[i]);
+		}
+		this.scanDuration.set(duration / NANOS_PER_SECOND);
+		this.lockHoldMax.set(longestLockHold / NANOS_PER_SECOND);
+		log.debug("Distinct users counted: {} in {}ms, longest lock hold {}ms",
+			distinctUsers, duration / 1_000_000, longestLockHold / 1_000_000);
 		return distinctUsers;
 	}
 
 	//TY FredBoat / Shredder
-	private int countDistinctUsers(final Collection<JDA> shards, final AtomicInteger expectedUserCount) {
+	private int countDistinctUsers(final List<JDA> shards) {
 		if (shards.size() == 1) { //a single shard provides a cheap call for getting user cardinality
-			return Math.toIntExact(shards.iterator().next().getUserCache().size());
+			Arrays.fill(this.lockHolds, 0);
+			return Math.toIntExact(shards.get(0).getUserCache().size());
+		}
+
+		ensureScratchSpace(shards.size());
+		final List<ForkJoinTask<?>> scans = new ArrayList<>(shards.size());
+		for (int i = 0; i < shards.size(); i++) {
+			final int index = i;
+			final JDA shard = shards.get(i);
+			scans.add(this.pool.submit(() -> scanShard(index, shard)));
+		}
+		for (ForkJoinTask<?> scan : scans) {
+			scan.join();
 		}
 
-		final int expected = expectedUserCount.get() > 0 ? expectedUserCount.get() : LongOpenHashSet.DEFAULT_INITIAL_SIZE;
-		final LongOpenHashSet distinctUsers = new LongOpenHashSet(expected + 10000); //add 10k for good measure
-		final TObjectProcedure<User> adder = user -> {
-			distinctUsers.add(user.getIdLong());
-			return true;
-		};
-		Collections.unmodifiableCollection(shards).forEach(
-			// IMPLEMENTATION NOTE: READ
-			// careful, touching the map is in not all cases safe
-			// In this case, it just so happens to be safe, because the map is synchronized
-			// this means however, that for the (small) duration, the map cannot be used by other threads (if there are any)
-			shard -> {
-				SnowflakeCacheViewImpl<User> userCache = (SnowflakeCacheViewImpl<User>) shard.getUserCache();
-				try (var ignored = userCache.writeLock()) {
-					userCache.getMap().forEachValue(adder);
-				}
+		if (this.approximate) {
+			this.mergedSketch.clear();
+			for (int i = 0; i < shards.size(); i++) {
+				this.mergedSketch.merge(this.shardSketches[i]);
 			}
-		);
-		return distinctUsers.size();
+			return Math.toIntExact(this.mergedSketch.estimate());
+		}
+		return countDistinctSorted(this.shardIds, this.shardSizes, shards.size());
+	}
+
+	private void ensureScratchSpace(final int shardCount) {
+		if (this.lockHolds.length >= shardCount) {
+			return;
+		}
+		this.lockHolds = Arrays.copyOf(this.lockHolds, shardCount);
+		if (this.approximate) {
+			final int previous = this.shardSketches.length;
+			this.shardSketches = Arrays.copyOf(this.shardSketches, shardCount);
+			for (int i = previous; i < shardCount; i++) {
+				this.shardSketches[i] = new HyperLogLog(this.precision);
+			}
+		} else {
+			this.shardIds = Arrays.copyOf(this.shardIds, shardCount);
+			this.shardSizes = Arrays.copyOf(this.shardSizes, shardCount);
+		}
+	}
+
+	/**
+	 * Runs on the pool. Only touches the scratch space at the given index.
+	 */
+	private void scanShard(final int index, final JDA shard) {
+		final SnowflakeCacheViewImpl<User> userCache = (SnowflakeCacheViewImpl<User>) shard.getUserCache();
+		if (this.approximate) {
+			sketchShard(index, userCache);
+		} else {
+			copyShard(index, userCache);
+		}
+	}
+
+	private void sketchShard(final int index, final SnowflakeCacheViewImpl<User> userCache) {
+		final HyperLogLog sketch = this.shardSketches[index];
+		sketch.clear();
+
+		// IMPLEMENTATION NOTE: READ
+		// careful, touching the map is in not all cases safe
+		// In this case, it just so happens to be safe, because we are holding the lock of the cache view,
+		// same as JDA does when iterating it.
+		try (var ignored = userCache.readLock()) {
+			final long locked = System.nanoTime();
+			userCache.getMap().forEachKey(id -> {
+				sketch.add(id);
+				return true;
+			});
+			this.lockHolds[index] = System.nanoTime() - locked;
+		}
+	}
+
+	private void copyShard(final int index, final SnowflakeCacheViewImpl<User> userCache) {
+		// grow outside of the lock, the size read is racy but usually good enough to avoid growing under the lock
+		long[] ids = this.shardIds[index];
+		final int expectedSize = Math.toIntExact(userCache.size());
+		if (ids == null || ids.length < expectedSize) {
+			ids = new long[expectedSize + expectedSize / 8 + 1024];
+		}
+
+		final int size;
+		final long lockHold;
+		// IMPLEMENTATION NOTE: READ
+		// careful, touching the map is in not all cases safe
+		// In this case, it just so happens to be safe, because we are holding the lock of the cache view,
+		// same as JDA does when iterating it. For that duration writers on the shard are blocked, so we only copy
+		// the raw ids while holding it.
+		try (var ignored = userCache.readLock()) {
+			final long locked = System.nanoTime();
+			final TLongObjectMap<User> map = userCache.getMap();
+			size = map.size();
+			ids = map.keys(ids);
+			lockHold = System.nanoTime() - locked;
+		}
+
+		this.shardIds[index] = ids;
+		this.shardSizes[index] = size;
+		this.lockHolds[index] = lockHold;
+
+		Arrays.sort(ids, 0, size);
+	}
+
+	/**
+	 * Count the distinct values across several sorted arrays by merging them through a min heap of their indices,
+	 * without boxing or copying them into a single set.
+	 */
+	static int countDistinctSorted(final long[][] arrays, final int[] sizes, final int arrayCount) {
+		final int[] cursors = new int[arrayCount];
+		final int[] heap = new int[arrayCount];
+		int heapSize = 0;
+		for (int i = 0; i < arrayCount; i++) {
+			if (sizes[i] > 0) {
+				heap[heapSize++] = i;
+			}
+		}
+		for (int i = heapSize / 2 - 1; i >= 0; i--) {
+			siftDown(heap, heapSize, i, arrays, cursors);
+		}
+
+		int distinct = 0;
+		long last = 0;
+		while (heapSize > 0) {
+			final int top = heap[0];
+			final long value = arrays[top][cursors[top]];
+			if (distinct == 0 || value != last) {
+				distinct++;
+				last = value;
+			}
+			cursors[top]++;
+			if (cursors[top] == sizes[top]) {
+				heap[0] = heap[--heapSize];
+			}
+			siftDown(heap, heapSize, 0, arrays, cursors);
+		}
+		return distinct;
+	}
+
+	private static void siftDown(final int[] heap, final int heapSize, int position, final long[][] arrays, final int[] cursors) {
+		while (true) {
+			final int left = 2 * position + 1;
+			if (left >= heapSize) {
+				return;
+			}
+			final int right = left + 1;
+			int smallest = left;
+			if (right < heapSize && head(heap[right], arrays, cursors) < head(heap[left], arrays, cursors)) {
+				smallest = right;
+			}
+			if (head(heap[position], arrays, cursors) <= head(heap[smallest], arrays, cursors)) {
+				return;
+			}
+			final int swap = heap[position];
+			heap[position] = heap[smallest];
+			heap[smallest] = swap;
+			position = smallest;
+		}
+	}
+
+	private static long head(final int array, final long[][] arrays, final int[] cursors) {
+		return arrays[array][cursors[array]];
 	}
 }
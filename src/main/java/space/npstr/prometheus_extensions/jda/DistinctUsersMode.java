@@ -0,0 +1,50 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+/**
+ * How {@link JdaMetrics} counts the distinct users across all shards
+ */
+public enum DistinctUsersMode {
+
+	/**
+	 * Periodically walk the user caches of all shards. Exact, but the cost grows with the amount of cached users.
+	 */
+	SCAN,
+
+	/**
+	 * Keep a count of cached guild memberships per user, fed by member and guild events. The count is always current
+	 * and updating it costs O(1) per member. A periodic scan corrects any drift, see
+	 * {@link JdaMetricsOptions.Builder#reconciliationPeriod(java.time.Duration)}.
+	 */
+	INCREMENTAL,
+
+	/**
+	 * Periodically walk the user caches of all shards, but instead of collecting the ids into a set, each shard is
+	 * folded into a fixed size HyperLogLog sketch of a few KB. Reports an estimate, for bots with tens of millions of
+	 * users. See {@link JdaMetricsOptions.Builder#approximateDistinctUsersError(double)}.
+	 */
+	APPROXIMATE,
+}
@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import java.util.Collection;
+import java.util.function.ObjIntConsumer;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.GuildVoiceState;
+
+/**
+ * Entity counts of all shards, accumulated in a single traversal of the guilds of each shard. The guilds with an audio
+ * connection are collected on the side.
+ */
+class EntityCounts {
+
+	long categories;
+	long guilds;
+	long privateChannels;
+	long textChannels;
+	long users;
+	long voiceChannels;
+	long emojis;
+	long roles;
+
+	// guilds of the current shard where we are connected to an audio channel
+	private final LongOpenHashSet shardVoiceConnections = new LongOpenHashSet();
+
+	/**
+	 * @param voiceConnections receives the ids of the guilds with an audio connection of each shard, along with the
+	 *                         shard id. The set is reused for the next shard.
+	 */
+	static EntityCounts count(final Collection<JDA> shards, final ObjIntConsumer<LongOpenHashSet> voiceConnections) {
+		final EntityCounts counts = new EntityCounts();
+		for (JDA shard : shards) {
+			counts.addShard(shard);
+			voiceConnections.accept(counts.shardVoiceConnections, shard.getShardInfo().getShardId());
+		}
+		return counts;
+	}
+
+	private void addShard(final JDA shard) {
+		this.categories += shard.getCategoryCache().size();
+		this.guilds += shard.getGuildCache().size();
+		this.privateChannels += shard.getPrivateChannelCache().size();
+		this.textChannels += shard.getTextChannelCache().size();
+		this.users += shard.getUserCache().size();
+		this.voiceChannels += shard.getVoiceChannelCache().size();
+
+		this.shardVoiceConnections.clear();
+		shard.getGuildCache().forEachUnordered(this::addGuild);
+	}
+
+	private void addGuild(final Guild guild) {
+		this.emojis += guild.getEmojiCache().size();
+		this.roles += guild.getRoleCache().size();
+
+		final GuildVoiceState voiceState = guild.getSelfMember().getVoiceState();
+		if (voiceState != null && voiceState.inAudioChannel()) {
+			this.shardVoiceConnections.add(guild.getIdLong());
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import java.util.Arrays;
+
+/**
+ * A minimal HyperLogLog sketch to estimate the cardinality of a set of longs in fixed memory.
+ * <p>
+ * See Flajolet et al., "HyperLogLog: the analysis of a near-optimal cardinality estimation algorithm". Since we use a
+ * 64 bit hash, no large range correction is necessary. Not thread safe.
+ */
+class HyperLogLog {
+
+	static final int MIN_PRECISION = 4;
+	static final int MAX_PRECISION = 18;
+
+	private final int precision;
+	private final byte[] registers;
+
+	/**
+	 * @param precision amount of index bits, the sketch uses 2^precision bytes
+	 */
+	HyperLogLog(int precision) {
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+			throw new IllegalArgumentException("Precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION
+				+ ", got " + precision);
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * @param relativeError the desired relative standard error of the estimate, for example 0.01 for 1%
+	 * @return the smallest precision that achieves the error
+	 */
+	static int precisionFor(double relativeError) {
+		if (relativeError <= 0 || relativeError >= 1) {
+			throw new IllegalArgumentException("Relative error must be between 0 and 1, got " + relativeError);
+		}
+		double registerCount = Math.pow(1.04 / relativeError, 2);
+		int precision = (int) Math.ceil(Math.log(registerCount) / Math.log(2));
+		return Math.max(MIN_PRECISION, Math.min(MAX_PRECISION, precision));
+	}
+
+	int precision() {
+		return this.precision;
+	}
+
+	void add(long value) {
+		long hash = mix(value);
+		int index = (int) (hash >>> (Long.SIZE - this.precision));
+		// the guard bit caps the rank in case all remaining bits are zero
+		byte rank = (byte) (Long.numberOfLeadingZeros((hash << this.precision) | (1L << (this.precision - 1))) + 1);
+		if (rank > this.registers[index]) {
+			this.registers[index] = rank;
+		}
+	}
+
+	void merge(HyperLogLog other) {
+		if (other.precision != this.precision) {
+			throw new IllegalArgumentException("Can't merge sketches of precision " + other.precision
+				+ " into " + this.precision);
+		}
+		for (int i = 0; i < this.registers.length; i++) {
+			if (other.registers[i] > this.registers[i]) {
+				this.registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	void clear() {
+		Arrays.fill(this.registers, (byte) 0);
+	}
+
+	long estimate() {
+		int registerCount = this.registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : this.registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) {
+				zeros++;
+			}
+		}
+		double estimate = alpha(registerCount) * registerCount * registerCount / sum;
+		if (estimate <= 2.5 * registerCount && zeros > 0) {
+			// small range correction, linear counting
+			estimate = registerCount * Math.log((double) registerCount / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	private static double alpha(int registerCount) {
+		return switch (registerCount) {
+			case 16 -> 0.673;
+			case 32 -> 0.697;
+			case 64 -> 0.709;
+			default -> 0.7213 / (1 + 1.079 / registerCount);
+		};
+	}
+
+	/**
+	 * Snowflakes are far from uniformly distributed, so spread them with the murmur3 finalizer.
+	 */
+	private static long mix(long value) {
+		long hash = value;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+import java.util.function.IntConsumer;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.events.guild.GuildAvailableEvent;
+import net.dv8tion.jda.api.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.api.events.guild.GuildUnavailableEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.events.session.SessionInvalidateEvent;
+import net.dv8tion.jda.api.events.session.SessionRecreateEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.sharding.ShardManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the distinct users from member and guild events instead of scanning the user caches.
+ * <p>
+ * For every shard we keep the amount of cached guild memberships of each user, and for every user the amount of
+ * shards they are a member on. The user is gone once that drops to zero. Members can enter the caches without an
+ * event we listen to (lazy loading, chunking after the guild was ready), so {@link #reconcile()} should be called
+ * periodically to correct any drift.
+ * <p>
+ * When a session is invalidated, JDA drops the caches of that shard without any events, and readies all of its guilds
+ * again once the session is recreated. The events of such a shard are ignored until then, and the recreation hands a
+ * reconciliation of that shard to the executor.
+ */
+class IncrementalDistinctUsersCounter extends ListenerAdapter {
+
+	private static final Logger log = LoggerFactory.getLogger(IncrementalDistinctUsersCounter.class);
+
+	private final ShardManager shardManager;
+	private final IntConsumer publisher;
+	private final Executor executor;
+
+	// by shard id, the memberships of each user on that shard, guarded by this
+	private final Long2IntOpenHashMap[] shards;
+	// the amount of shards each user has memberships on, guarded by this
+	private final Long2IntOpenHashMap users = new Long2IntOpenHashMap();
+	// by shard id, the recount in progress, guarded by this
+	private final Recount[] recounts;
+	// ids of the shards with an invalidated session, guarded by this
+	private final BitSet invalidatedShards = new BitSet();
+	// ids of the shards with a reconciliation handed to the executor, guarded by this
+	private final BitSet pendingShards = new BitSet();
+
+	/**
+	 * @param publisher receives the distinct users count whenever it changes
+	 * @param executor  runs the reconciliation of a shard after its session was recreated, off the event threads
+	 */
+	IncrementalDistinctUsersCounter(final ShardManager shardManager, final IntConsumer publisher, final Executor executor) {
+		this.shardManager = shardManager;
+		this.publisher = publisher;
+		this.executor = executor;
+		this.shards = new Long2IntOpenHashMap[shardManager.getShardsTotal()];
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new Long2IntOpenHashMap();
+		}
+		this.recounts = new Recount[this.shards.length];
+	}
+
+	public synchronized int count() {
+		return this.users.size();
+	}
+
+	/**
+	 * Recount the memberships of each shard from its member caches and replace the tracked state of that shard with
+	 * the result. Shards with an invalidated session are left to the reconciliation that follows their recreation.
+	 */
+	public void reconcile() {
+		final long started = System.currentTimeMillis();
+		final int before = count();
+		for (JDA shard : this.shardManager.getShards()) {
+			reconcile(shard, false);
+		}
+		log.debug("Distinct users reconciled with a drift of {} in {}ms", count() - before, System.currentTimeMillis() - started);
+	}
+
+	/**
+	 * The member caches are scanned without holding the lock, so the events of all shards keep flowing. Events for
+	 * guilds that the scan already passed are recorded and applied to the recount before it replaces the tracked state.
+	 * JDA updates its caches before dispatching the event, so a change that raced with the scan of its guild may be
+	 * counted twice, which the next reconciliation corrects.
+	 *
+	 * @param recreated whether the session of the shard was just recreated, otherwise invalidated shards are skipped
+	 */
+	private void reconcile(final JDA shard, final boolean recreated) {
+		final int shardId = shard.getShardInfo().getShardId();
+		final Recount recount = new Recount();
+		synchronized (this) {
+			if (this.recounts[shardId] != null || (!recreated && this.invalidatedShards.get(shardId))) {
+				return;
+			}
+			this.recounts[shardId] = recount;
+		}
+		try {
+			final Long2IntOpenHashMap recounted = new Long2IntOpenHashMap(this.shards[shardId].size() + 1000); //add 1k for good measure
+			shard.getGuildCache().forEachUnordered(guild -> {
+				synchronized (this) {
+					recount.scannedGuilds.add(guild.getIdLong());
+				}
+				guild.getMemberCache().forEachUnordered(member -> recounted.addTo(member.getIdLong(), 1));
+			});
+
+			synchronized (this) {
+				if (recount.invalidated) { // the scanned caches were dropped, the next recreation recounts them
+					return;
+				}
+				swap(shardId, recounted, recount.deltas);
+				this.invalidatedShards.clear(shardId);
+				publish();
+			}
+		} finally {
+			synchronized (this) {
+				this.recounts[shardId] = null;
+			}
+		}
+	}
+
+	@Override
+	public void onSessionInvalidate(final SessionInvalidateEvent event) {
+		final int shardId = event.getJDA().getShardInfo().getShardId();
+		synchronized (this) {
+			this.invalidatedShards.set(shardId);
+			final Recount recount = this.recounts[shardId];
+			if (recount != null) {
+				recount.invalidated = true;
+			}
+		}
+	}
+
+	@Override
+	public void onSessionRecreate(final SessionRecreateEvent event) {
+		final JDA shard = event.getJDA();
+		final int shardId = shard.getShardInfo().getShardId();
+		synchronized (this) {
+			if (this.pendingShards.get(shardId)) {
+				return;
+			}
+			this.pendingShards.set(shardId);
+		}
+		this.executor.execute(() -> {
+			synchronized (this) {
+				this.pendingShards.clear(shardId);
+			}
+			reconcile(shard, true);
+		});
+	}
+
+	@Override
+	public void onGuildReady(final GuildReadyEvent event) {
+		addMembers(event.getGuild());
+	}
+
+	@Override
+	public void onGuildJoin(final GuildJoinEvent event) {
+		addMembers(event.getGuild());
+	}
+
+	@Override
+	public void onGuildAvailable(final GuildAvailableEvent event) {
+		addMembers(event.getGuild());
+	}
+
+	@Override
+	public void onGuildLeave(final GuildLeaveEvent event) {
+		removeMembers(event.getGuild());
+	}
+
+	@Override
+	public void onGuildUnavailable(final GuildUnavailableEvent event) {
+		// the guild is gone from the cache of the shard, but still holds the members we counted
+		removeMembers(event.getGuild());
+	}
+
+	@Override
+	public void onGuildMemberJoin(final GuildMemberJoinEvent event) {
+		final long userId = event.getMember().getIdLong();
+		if (event.getGuild().getMemberById(userId) == null) { // not cached, not counted
+			return;
+		}
+		synchronized (this) {
+			change(event.getGuild(), userId, 1);
+			publish();
+		}
+	}
+
+	@Override
+	public void onGuildMemberRemove(final GuildMemberRemoveEvent event) {
+		if (event.getMember() == null) { // was not cached, was not counted
+			return;
+		}
+		synchronized (this) {
+			change(event.getGuild(), event.getUser().getIdLong(), -1);
+			publish();
+		}
+	}
+
+	private synchronized void addMembers(final Guild guild) {
+		guild.getMemberCache().forEachUnordered(member -> change(guild, member.getIdLong(), 1));
+		publish();
+	}
+
+	private synchronized void removeMembers(final Guild guild) {
+		guild.getMemberCache().forEachUnordered(member -> change(guild, member.getIdLong(), -1));
+		publish();
+	}
+
+	// guarded by this
+	private void change(final Guild guild, final long userId, final int delta) {
+		final int shardId = guild.getJDA().getShardInfo().getShardId();
+		final Recount recount = this.recounts[shardId];
+		if (recount != null && recount.scannedGuilds.contains(guild.getIdLong())) {
+			recount.deltas.addTo(userId, delta);
+		}
+		if (this.invalidatedShards.get(shardId)) { // counted by the reconciliation once the session is recreated
+			return;
+		}
+		final Long2IntOpenHashMap memberships = this.shards[shardId];
+		if (delta > 0) {
+			if (memberships.addTo(userId, 1) == 0) {
+				this.users.addTo(userId, 1);
+			}
+		} else if (memberships.containsKey(userId) && memberships.addTo(userId, -1) <= 1) {
+			memberships.remove(userId);
+			removeUser(userId);
+		}
+	}
+
+	/**
+	 * Replace the memberships of a shard, only the users that appear on or disappear from it touch the shared state.
+	 */
+	// guarded by this
+	private void swap(final int shardId, final Long2IntOpenHashMap recounted, final Long2IntOpenHashMap deltas) {
+		for (LongIterator it = deltas.keySet().iterator(); it.hasNext(); ) {
+			final long userId = it.nextLong();
+			final int delta = deltas.get(userId);
+			if (recounted.addTo(userId, delta) + delta <= 0) {
+				recounted.remove(userId);
+			}
+		}
+
+		final Long2IntOpenHashMap previous = this.shards[shardId];
+		for (LongIterator it = previous.keySet().iterator(); it.hasNext(); ) {
+			final long userId = it.nextLong();
+			if (!recounted.containsKey(userId)) {
+				removeUser(userId);
+			}
+		}
+		for (LongIterator it = recounted.keySet().iterator(); it.hasNext(); ) {
+			final long userId = it.nextLong();
+			if (!previous.containsKey(userId)) {
+				this.users.addTo(userId, 1);
+			}
+		}
+		this.shards[shardId] = recounted;
+	}
+
+	// guarded by this
+	private void removeUser(final long userId) {
+		if (this.users.addTo(userId, -1) <= 1) {
+			this.users.remove(userId);
+		}
+	}
+
+	// guarded by this
+	private void publish() {
+		this.publisher.accept(this.users.size());
+	}
+
+	/**
+	 * The state of a shard reconciliation in progress, guarded by the counter
+	 */
+	private static class Recount {
+		private final LongOpenHashSet scannedGuilds = new LongOpenHashSet();
+		// the events for the scanned guilds, by user
+		private final Long2IntOpenHashMap deltas = new Long2IntOpenHashMap();
+		// the session was invalidated during the recount
+		private boolean invalidated;
+	}
+}
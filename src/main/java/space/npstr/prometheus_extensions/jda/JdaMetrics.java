@@ -24,25 +24,24 @@
 
 package space.npstr.prometheus_extensions.jda;
 
+import io.prometheus.metrics.core.datapoints.GaugeDataPoint;
 import io.prometheus.metrics.core.metrics.Gauge;
+import io.prometheus.metrics.core.metrics.GaugeWithCallback;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
 import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
 import java.time.Duration;
-import java.util.Objects;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.function.Function;
+import java.util.function.Supplier;
 import javax.security.auth.login.LoginException;
 import net.dv8tion.jda.api.JDA;
-import net.dv8tion.jda.api.entities.Guild;
-import net.dv8tion.jda.api.entities.GuildVoiceState;
-import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.requests.Request;
 import net.dv8tion.jda.api.requests.Response;
 import net.dv8tion.jda.api.requests.Route;
 import net.dv8tion.jda.api.sharding.ShardManager;
-import net.dv8tion.jda.api.utils.cache.CacheView;
 import net.dv8tion.jda.api.utils.data.DataObject;
 import net.dv8tion.jda.internal.requests.RestActionImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import space.npstr.prometheus_extensions.DiscordMetrics;
 
 /**
@@ -50,43 +49,151 @@ import space.npstr.prometheus_extensions.DiscordMetrics;
  */
 public class JdaMetrics {
 
+	private static final Logger log = LoggerFactory.getLogger(JdaMetrics.class);
+
 	private final ShardManager shardManager;
 	private final MetricsScheduler metricsScheduler;
+	/**
+	 * null in {@link DistinctUsersMode#INCREMENTAL}
+	 */
 	private final DistinctUsersCounter distinctUsersCounter;
+	private final IncrementalDistinctUsersCounter incrementalDistinctUsersCounter;
+	private final VoiceConnectionTracker voiceConnectionTracker;
+	private final PrometheusMetricsEventListener metricsEventListener;
 	private final DiscordMetrics discordMetrics;
+	private final JdaMetricsOptions options;
 
+	/**
+	 * null if {@link JdaMetricsOptions#isLazyCollection()}
+	 */
 	private final Gauge distinctUsers;
+	/**
+	 * null unless {@link JdaMetricsOptions#isLazyCollection()}
+	 */
+	private final Supplier<Integer> lazyDistinctUsers;
+	private final SingleFlightCache<EntityCounts> lazyEntities;
+
+	// null if {@link JdaMetricsOptions#isLazyCollection()}
+	private final GaugeDataPoint categories;
+	private final GaugeDataPoint guilds;
+	private final GaugeDataPoint privateChannels;
+	private final GaugeDataPoint textChannels;
+	private final GaugeDataPoint users;
+	private final GaugeDataPoint voiceChannels;
+	private final GaugeDataPoint emotes;
+	private final GaugeDataPoint roles;
 
 	public JdaMetrics(ShardManager shardManager, ScheduledExecutorService scheduler) {
 		this(shardManager, scheduler, PrometheusRegistry.defaultRegistry);
 	}
 
+	public JdaMetrics(
+		ShardManager shardManager, ScheduledExecutorService scheduler,
+		PrometheusRegistry registry
+	) {
+		this(shardManager, scheduler, registry, JdaMetricsOptions.defaults());
+	}
+
 	/**
 	 * @param shardManager the shard manager of your JDA bot
 	 * @param scheduler    some of the JDA metrics are rather costly to calculate, especially on larger bots -
 	 *                     those calculations shall be run on the passed in executor
+	 * @param options      tune how the metrics are collected
 	 */
 	public JdaMetrics(
 		ShardManager shardManager, ScheduledExecutorService scheduler,
-		PrometheusRegistry registry
+		PrometheusRegistry registry, JdaMetricsOptions options
 	) {
 		this.shardManager = shardManager;
-		this.metricsScheduler = new MetricsScheduler(scheduler, shardManager);
-		this.distinctUsersCounter = new DistinctUsersCounter(shardManager);
-		this.discordMetrics = new DiscordMetrics(registry);
-		final var metricsEventListener = new PrometheusMetricsEventListener(registry, discordMetrics);
-		this.shardManager.addEventListener(metricsEventListener);
+		this.options = options;
+		this.metricsScheduler = new MetricsScheduler(scheduler, shardManager, registry);
+		this.distinctUsersCounter = options.getDistinctUsersMode() == DistinctUsersMode.INCREMENTAL
+			? null
+			: new DistinctUsersCounter(shardManager, options, registry);
+
+		if (options.isLazyCollection()) {
+			this.lazyEntities = new SingleFlightCache<>(options.getLazyCollectionMaxAge(), this::countEntities);
+			this.discordMetrics = new DiscordMetrics(registry, this::collectEntities, options.getDiscordMetricsOptions());
+		} else {
+			this.lazyEntities = null;
+			this.discordMetrics = new DiscordMetrics(registry, options.getDiscordMetricsOptions());
+		}
+		this.metricsEventListener = new PrometheusMetricsEventListener(registry, discordMetrics);
+		this.shardManager.addEventListener(this.metricsEventListener);
+
+		this.voiceConnectionTracker = new VoiceConnectionTracker(
+			this.discordMetrics.getVoiceChannelsConnected(), shardManager.getShardsTotal());
+		this.shardManager.addEventListener(this.voiceConnectionTracker);
 
-		this.distinctUsers = Gauge.builder()
-			.name("jda_distinct_users_current")
-			.help("Total distinct users")
-			.register(registry);
+		if (options.isLazyCollection()) {
+			this.distinctUsers = null;
+			if (options.getDistinctUsersMode() == DistinctUsersMode.INCREMENTAL) {
+				this.incrementalDistinctUsersCounter = new IncrementalDistinctUsersCounter(shardManager, count -> {}, this::reconcileShard);
+				this.lazyDistinctUsers = this.incrementalDistinctUsersCounter::count; // cheap, no need to cache
+			} else {
+				this.incrementalDistinctUsersCounter = null;
+				SingleFlightCache<Integer> cache = new SingleFlightCache<>(
+					options.getLazyCollectionMaxAge(), this.distinctUsersCounter::count);
+				this.lazyDistinctUsers = () -> lazy(cache);
+			}
+			GaugeWithCallback.builder()
+				.name("jda_distinct_users_current")
+				.help("Total distinct users")
+				.callback(this::collectDistinctUsers)
+				.register(registry);
+		} else {
+			this.lazyDistinctUsers = null;
+			this.distinctUsers = Gauge.builder()
+				.name("jda_distinct_users_current")
+				.help("Total distinct users")
+				.register(registry);
+			if (options.getDistinctUsersMode() == DistinctUsersMode.INCREMENTAL) {
+				this.incrementalDistinctUsersCounter = new IncrementalDistinctUsersCounter(shardManager, this.distinctUsers::set,
+					this::reconcileShard);
+			} else {
+				this.incrementalDistinctUsersCounter = null;
+			}
+		}
+		if (this.incrementalDistinctUsersCounter != null) {
+			this.shardManager.addEventListener(this.incrementalDistinctUsersCounter);
+		}
 
+		Gauge entities = this.discordMetrics.getDiscordEntities();
+		this.categories = entities == null ? null : entities.labelValues("Category");
+		this.guilds = entities == null ? null : entities.labelValues("Guild");
+		this.privateChannels = entities == null ? null : entities.labelValues("PrivateChannel");
+		this.textChannels = entities == null ? null : entities.labelValues("TextChannel");
+		this.users = entities == null ? null : entities.labelValues("User");
+		this.voiceChannels = entities == null ? null : entities.labelValues("VoiceChannel");
+		this.emotes = entities == null ? null : entities.labelValues("Emote");
+		this.roles = entities == null ? null : entities.labelValues("Role");
 
 		registerMetricsJobs();
 	}
 
+	/**
+	 * Stop collecting: removes the event listeners, stops the metrics jobs and shuts down the threads counting the
+	 * distinct users. The metrics stay registered with their last values. The passed in scheduler is not shut down.
+	 */
+	public void shutdown() {
+		this.shardManager.removeEventListener(this.metricsEventListener, this.voiceConnectionTracker);
+		if (this.incrementalDistinctUsersCounter != null) {
+			this.shardManager.removeEventListener(this.incrementalDistinctUsersCounter);
+		}
+		this.metricsScheduler.shutdown();
+		if (this.distinctUsersCounter != null) {
+			this.distinctUsersCounter.shutdown();
+		}
+	}
+
+	/**
+	 * @return the distinct users, if {@link JdaMetricsOptions#isLazyCollection()} this may trigger counting them
+	 */
 	public int getDistinctUsers() {
+		if (this.lazyDistinctUsers != null) {
+			Integer distinctUsers = this.lazyDistinctUsers.get();
+			return distinctUsers == null ? 0 : distinctUsers;
+		}
 		GaugeSnapshot.GaugeDataPointSnapshot datapoint = this.distinctUsers.collect().getDataPoints().stream()
 			.findFirst().orElse(null);
 		if (datapoint == null) {
@@ -98,10 +205,23 @@ public class JdaMetrics {
 	private void registerMetricsJobs() {
 		final Duration period = Duration.ofMinutes(1);
 
-		this.metricsScheduler.schedule(this::countDistinctUsers, period);
-		this.metricsScheduler.schedule(this::countConnectedVoiceChannels, period);
-		this.metricsScheduler.schedule(this::countEntities, period);
-		this.metricsScheduler.schedule(this::sessionStartLimits, period, false);
+		if (this.incrementalDistinctUsersCounter != null) {
+			this.metricsScheduler.schedule("distinct_users_reconciliation",
+				this.incrementalDistinctUsersCounter::reconcile, this.options.getReconciliationPeriod());
+		}
+		if (!this.options.isLazyCollection()) {
+			if (this.incrementalDistinctUsersCounter == null) {
+				// counting the distinct users gets expensive on large bots, back off if necessary
+				this.metricsScheduler.schedule("distinct_users", this::countDistinctUsers, period, true, true);
+			}
+			this.metricsScheduler.schedule("entities", this::publishEntities, period);
+		}
+		this.metricsScheduler.schedule("unavailable_guilds", this::countUnavailableGuilds, period);
+		this.metricsScheduler.schedule("session_start_limits", this::sessionStartLimits, period, false);
+	}
+
+	private void reconcileShard(Runnable reconciliation) {
+		this.metricsScheduler.execute("distinct_users_shard_reconciliation", reconciliation);
 	}
 
 	private void sessionStartLimits() {
@@ -141,55 +261,73 @@ public class JdaMetrics {
 		this.distinctUsers.set(this.distinctUsersCounter.count());
 	}
 
-	private void countConnectedVoiceChannels() {
-		final long count = this.shardManager.getGuildCache().stream()
-			.map(Guild::getSelfMember)
-			.map(Member::getVoiceState)
-			.filter(Objects::nonNull)
-			.filter(GuildVoiceState::inAudioChannel)
-			.count();
-		this.discordMetrics.getVoiceChannelsConnected().set(count);
+	/**
+	 * Counts all entities in a single traversal of the guilds. The connected voice channels are tracked from events,
+	 * the traversal reconciles them on the side.
+	 */
+	private EntityCounts countEntities() {
+		return EntityCounts.count(this.shardManager.getShards(), this.voiceConnectionTracker::reconcile);
 	}
 
-	private void countEntities() {
-		this.discordMetrics.getDiscordEntities().labelValues("Category")
-			.set(countShardEntities(JDA::getCategoryCache));
-		this.discordMetrics.getDiscordEntities().labelValues("Guild")
-			.set(countShardEntities(JDA::getGuildCache));
-		this.discordMetrics.getDiscordEntities().labelValues("PrivateChannel")
-			.set(countShardEntities(JDA::getPrivateChannelCache));
-		this.discordMetrics.getDiscordEntities().labelValues("TextChannel")
-			.set(countShardEntities(JDA::getTextChannelCache));
-		this.discordMetrics.getDiscordEntities().labelValues("User")
-			.set(countShardEntities(JDA::getUserCache));
-		this.discordMetrics.getDiscordEntities().labelValues("VoiceChannel")
-			.set(countShardEntities(JDA::getVoiceChannelCache));
+	private void publishEntities() {
+		EntityCounts counts = countEntities();
 
-		this.discordMetrics.getDiscordEntities().labelValues("Emote")
-			.set(countGuildEntities(Guild::getEmojiCache));
-		this.discordMetrics.getDiscordEntities().labelValues("Role")
-			.set(countGuildEntities(Guild::getRoleCache));
+		this.categories.set(counts.categories);
+		this.guilds.set(counts.guilds);
+		this.privateChannels.set(counts.privateChannels);
+		this.textChannels.set(counts.textChannels);
+		this.users.set(counts.users);
+		this.voiceChannels.set(counts.voiceChannels);
+		this.emotes.set(counts.emojis);
+		this.roles.set(counts.roles);
+	}
 
-		countUnavailableGuilds(this.discordMetrics.getUnavailableGuilds());
+	/**
+	 * Like the scheduled jobs, only counts while all shards are connected, so that the partial counts of a starting
+	 * bot are not cached. Until then the last count is used, null if there is none.
+	 */
+	private <T> T lazy(SingleFlightCache<T> cache) {
+		return MetricsScheduler.allShardsConnected(this.shardManager) ? cache.get() : cache.getCached();
 	}
 
-	private long countShardEntities(Function<JDA, CacheView<?>> toCacheView) {
-		return this.shardManager.getShards().stream()
-			.map(toCacheView)
-			.mapToLong(CacheView::size)
-			.sum();
+	// a failure would fail the whole scrape, so skip the data points instead, until the first count succeeded
+	private void collectDistinctUsers(GaugeWithCallback.Callback callback) {
+		Integer distinctUsers;
+		try {
+			distinctUsers = this.lazyDistinctUsers.get();
+		} catch (final RuntimeException e) {
+			log.warn("Failed to count distinct users", e);
+			return;
+		}
+		if (distinctUsers != null) {
+			callback.call(distinctUsers);
+		}
 	}
 
-	private long countGuildEntities(Function<Guild, CacheView<?>> toCacheView) {
-		return this.shardManager.getShards().stream()
-			.map(JDA::getGuildCache)
-			.flatMap(CacheView::stream)
-			.map(toCacheView)
-			.mapToLong(CacheView::size)
-			.sum();
+	private void collectEntities(GaugeWithCallback.Callback callback) {
+		EntityCounts counts;
+		try {
+			counts = lazy(this.lazyEntities);
+		} catch (final RuntimeException e) {
+			log.warn("Failed to count entities", e);
+			return;
+		}
+		if (counts == null) {
+			return;
+		}
+
+		callback.call(counts.categories, "Category");
+		callback.call(counts.guilds, "Guild");
+		callback.call(counts.privateChannels, "PrivateChannel");
+		callback.call(counts.textChannels, "TextChannel");
+		callback.call(counts.users, "User");
+		callback.call(counts.voiceChannels, "VoiceChannel");
+		callback.call(counts.emojis, "Emote");
+		callback.call(counts.roles, "Role");
 	}
 
-	private void countUnavailableGuilds(Gauge unavailableGuilds) {
+	private void countUnavailableGuilds() {
+		Gauge unavailableGuilds = this.discordMetrics.getUnavailableGuilds();
 		for (JDA jda : this.shardManager.getShards()) {
 			int shardId = jda.getShardInfo().getShardId();
 			int size = jda.getUnavailableGuilds().size();
@@ -0,0 +1,171 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import java.time.Duration;
+import java.util.Objects;
+import space.npstr.prometheus_extensions.DiscordMetricsOptions;
+
+/**
+ * Options to tune how {@link JdaMetrics} collects its metrics. The defaults are fine for small to medium bots.
+ */
+public class JdaMetricsOptions {
+
+	private final DistinctUsersMode distinctUsersMode;
+	private final Duration reconciliationPeriod;
+	private final double approximateDistinctUsersError;
+	private final int distinctUsersParallelism;
+	private final Duration lazyCollectionMaxAge;
+	private final DiscordMetricsOptions discordMetricsOptions;
+
+	private JdaMetricsOptions(Builder builder) {
+		this.distinctUsersMode = builder.distinctUsersMode;
+		this.reconciliationPeriod = builder.reconciliationPeriod;
+		this.approximateDistinctUsersError = builder.approximateDistinctUsersError;
+		this.distinctUsersParallelism = builder.distinctUsersParallelism;
+		this.lazyCollectionMaxAge = builder.lazyCollectionMaxAge;
+		this.discordMetricsOptions = builder.discordMetricsOptions;
+	}
+
+	public static JdaMetricsOptions defaults() {
+		return builder().build();
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public DistinctUsersMode getDistinctUsersMode() {
+		return distinctUsersMode;
+	}
+
+	public Duration getReconciliationPeriod() {
+		return reconciliationPeriod;
+	}
+
+	public double getApproximateDistinctUsersError() {
+		return approximateDistinctUsersError;
+	}
+
+	public int getDistinctUsersParallelism() {
+		return distinctUsersParallelism;
+	}
+
+	public boolean isLazyCollection() {
+		return lazyCollectionMaxAge != null;
+	}
+
+	/**
+	 * @return null unless {@link #isLazyCollection()}
+	 */
+	public Duration getLazyCollectionMaxAge() {
+		return lazyCollectionMaxAge;
+	}
+
+	public DiscordMetricsOptions getDiscordMetricsOptions() {
+		return discordMetricsOptions;
+	}
+
+	public static class Builder {
+
+		private DistinctUsersMode distinctUsersMode = DistinctUsersMode.SCAN;
+		private Duration reconciliationPeriod = Duration.ofMinutes(30);
+		private double approximateDistinctUsersError = 0.02;
+		private int distinctUsersParallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		private Duration lazyCollectionMaxAge = null;
+		private DiscordMetricsOptions discordMetricsOptions = DiscordMetricsOptions.defaults();
+
+		private Builder() {
+		}
+
+		/**
+		 * Default is {@link DistinctUsersMode#SCAN}
+		 */
+		public Builder distinctUsersMode(DistinctUsersMode distinctUsersMode) {
+			this.distinctUsersMode = Objects.requireNonNull(distinctUsersMode);
+			return this;
+		}
+
+		/**
+		 * How often the values that are tracked from events are corrected by a full recount. Default is 30 minutes.
+		 */
+		public Builder reconciliationPeriod(Duration reconciliationPeriod) {
+			if (reconciliationPeriod.isNegative() || reconciliationPeriod.isZero()) {
+				throw new IllegalArgumentException("Reconciliation period must be positive, got " + reconciliationPeriod);
+			}
+			this.reconciliationPeriod = reconciliationPeriod;
+			return this;
+		}
+
+		/**
+		 * Relative standard error of the estimate in {@link DistinctUsersMode#APPROXIMATE}. Default is 0.02, which
+		 * results in sketches of 4KB. Halving the error quadruples the sketch size, the sketches are capped at 256KB.
+		 */
+		public Builder approximateDistinctUsersError(double approximateDistinctUsersError) {
+			// validates the range
+			HyperLogLog.precisionFor(approximateDistinctUsersError);
+			this.approximateDistinctUsersError = approximateDistinctUsersError;
+			return this;
+		}
+
+		/**
+		 * How many shards are scanned in parallel when counting the distinct users. Default is half of the available
+		 * processors.
+		 */
+		public Builder distinctUsersParallelism(int distinctUsersParallelism) {
+			if (distinctUsersParallelism < 1) {
+				throw new IllegalArgumentException("Parallelism must be at least 1, got " + distinctUsersParallelism);
+			}
+			this.distinctUsersParallelism = distinctUsersParallelism;
+			return this;
+		}
+
+		/**
+		 * Instead of computing the distinct users and the entity counts every minute, compute them when they are
+		 * scraped and their last computation is older than the max age. Concurrent scrapes share one computation. Like
+		 * the periodic jobs, they are only computed while all shards are connected. Useful when scrapes are rare or
+		 * absent, for example on staging shards. Default is off.
+		 */
+		public Builder lazyCollection(Duration maxAge) {
+			if (maxAge.isNegative() || maxAge.isZero()) {
+				throw new IllegalArgumentException("Max age must be positive, got " + maxAge);
+			}
+			this.lazyCollectionMaxAge = maxAge;
+			return this;
+		}
+
+		/**
+		 * Options of the underlying {@link space.npstr.prometheus_extensions.DiscordMetrics}
+		 */
+		public Builder discordMetricsOptions(DiscordMetricsOptions discordMetricsOptions) {
+			this.discordMetricsOptions = Objects.requireNonNull(discordMetricsOptions);
+			return this;
+		}
+
+		public JdaMetricsOptions build() {
+			return new JdaMetricsOptions(this);
+		}
+	}
+}
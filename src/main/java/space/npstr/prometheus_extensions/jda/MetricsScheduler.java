@@ -24,8 +24,15 @@
 
 package space.npstr.prometheus_extensions.jda;
 
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.datapoints.GaugeDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Gauge;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
 import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.sharding.ShardManager;
@@ -34,35 +41,195 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Runs certain jobs periodically, only when the shard manager is fully up
+ * <p>
+ * Jobs start at a random offset, so they don't all fire at the same instant. Each job reschedules itself once it is
+ * done, so it never overlaps with itself - ticks that pass while a run is still going are skipped and counted as
+ * overruns. Adaptive jobs stretch their period when they get expensive.
  */
 class MetricsScheduler {
 
 	private static final Logger log = LoggerFactory.getLogger(MetricsScheduler.class);
+	private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+	private static final double MILLIS_PER_SECOND = 1000.0;
+	private static final long MAX_START_OFFSET_NANOS = Duration.ofMinutes(1).toNanos();
+	/**
+	 * Adaptive jobs back off until their runs take at most this fraction of their period
+	 */
+	private static final int ADAPTIVE_COST_FACTOR = 10;
 
 	private final ScheduledExecutorService scheduler;
 	private final ShardManager shardManager;
 
-	MetricsScheduler(final ScheduledExecutorService scheduler, final ShardManager shardManager) {
+	private final Gauge jobDuration;
+	private final Gauge jobPeriod;
+	private final Counter jobOverruns;
+	private final Gauge jobLastSuccess;
+
+	private volatile boolean shutdown = false;
+
+	MetricsScheduler(final ScheduledExecutorService scheduler, final ShardManager shardManager, final PrometheusRegistry registry) {
 		this.scheduler = scheduler;
 		this.shardManager = shardManager;
+
+		this.jobDuration = Gauge.builder()
+			.name("jda_metrics_job_duration_seconds")
+			.help("Duration of the last run of a metrics job")
+			.labelNames("job")
+			.register(registry);
+
+		this.jobPeriod = Gauge.builder()
+			.name("jda_metrics_job_period_seconds")
+			.help("Current period of a metrics job, adaptive jobs stretch it when they get expensive")
+			.labelNames("job")
+			.register(registry);
+
+		this.jobOverruns = Counter.builder()
+			.name("jda_metrics_job_overruns_total")
+			.help("Ticks of a metrics job that were skipped because the previous run was still going")
+			.labelNames("job")
+			.register(registry);
+
+		this.jobLastSuccess = Gauge.builder()
+			.name("jda_metrics_job_last_success_timestamp_seconds")
+			.help("Unix time of the last successful run of a metrics job")
+			.labelNames("job")
+			.register(registry);
 	}
 
-	public void schedule(Runnable runnable, Duration period) {
-		schedule(runnable, period, true);
+	public void schedule(String name, Runnable runnable, Duration period) {
+		schedule(name, runnable, period, true);
 	}
 
-	public void schedule(Runnable runnable, Duration period, boolean requireAllShards) {
-		this.scheduler.scheduleAtFixedRate(() -> {
-			try {
-				boolean allShardsAreConnected = this.shardManager.getShardCache().stream()
-					.allMatch(jda -> jda.getStatus() == JDA.Status.CONNECTED);
+	public void schedule(String name, Runnable runnable, Duration period, boolean requireAllShards) {
+		schedule(name, runnable, period, requireAllShards, false);
+	}
 
-				if (!requireAllShards || allShardsAreConnected) {
+	/**
+	 * @param name             the job label of the job metrics
+	 * @param requireAllShards only run the job when all shards are connected
+	 * @param adaptive         stretch the period of the job when its runs take longer than a tenth of it
+	 */
+	public void schedule(String name, Runnable runnable, Duration period, boolean requireAllShards, boolean adaptive) {
+		if (period.isNegative() || period.isZero()) {
+			throw new IllegalArgumentException("Period of job " + name + " must be positive, got " + period);
+		}
+		new Job(name, runnable, period.toNanos(), requireAllShards, adaptive).start();
+	}
+
+	/**
+	 * Stop all jobs, runs that are already going finish, but are not rescheduled
+	 */
+	public void shutdown() {
+		this.shutdown = true;
+	}
+
+	/**
+	 * Run a job once, as soon as possible, regardless of the shard statuses
+	 *
+	 * @param name the job name for logging
+	 */
+	public void execute(String name, Runnable runnable) {
+		if (this.shutdown) {
+			return;
+		}
+		try {
+			scheduler.execute(() -> {
+				try {
 					runnable.run();
+				} catch (final Exception e) {
+					log.warn("Failed to run metrics job {}", name, e);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			log.debug("Metrics job {} not run, the scheduler is shut down", name);
+		}
+	}
+
+	static boolean allShardsConnected(ShardManager shardManager) {
+		return shardManager.getShardCache().stream()
+			.allMatch(jda -> jda.getStatus() == JDA.Status.CONNECTED);
+	}
+
+	private class Job implements Runnable {
+
+		private final String name;
+		private final Runnable runnable;
+		private final long periodNanos;
+		private final boolean requireAllShards;
+		private final boolean adaptive;
+
+		private final GaugeDataPoint duration;
+		private final GaugeDataPoint period;
+		private final CounterDataPoint overruns;
+		private final GaugeDataPoint lastSuccess;
+
+		// only touched by the runs of this job, which never overlap
+		private long nextTick;
+
+		private Job(String name, Runnable runnable, long periodNanos, boolean requireAllShards, boolean adaptive) {
+			this.name = name;
+			this.runnable = runnable;
+			this.periodNanos = periodNanos;
+			this.requireAllShards = requireAllShards;
+			this.adaptive = adaptive;
+
+			this.duration = jobDuration.labelValues(name);
+			this.period = jobPeriod.labelValues(name);
+			this.overruns = jobOverruns.labelValues(name);
+			this.lastSuccess = jobLastSuccess.labelValues(name);
+		}
+
+		private void start() {
+			long offset = ThreadLocalRandom.current().nextLong(Math.min(this.periodNanos, MAX_START_OFFSET_NANOS));
+			this.period.set(this.periodNanos / NANOS_PER_SECOND);
+			this.nextTick = System.nanoTime() + offset;
+			scheduler.schedule(this, offset, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public void run() {
+			if (shutdown) {
+				return;
+			}
+			long took = 0;
+			try {
+				if (!this.requireAllShards || allShardsConnected(shardManager)) {
+					long started = System.nanoTime();
+					try {
+						this.runnable.run();
+						this.lastSuccess.set(System.currentTimeMillis() / MILLIS_PER_SECOND);
+					} finally {
+						took = System.nanoTime() - started;
+						this.duration.set(took / NANOS_PER_SECOND);
+					}
 				}
 			} catch (final Exception e) {
-				log.warn("Failed to run metrics job", e);
+				log.warn("Failed to run metrics job {}", this.name, e);
+			} finally {
+				scheduleNext(took);
+			}
+		}
+
+		private void scheduleNext(long took) {
+			long currentPeriod = this.periodNanos;
+			if (this.adaptive) {
+				currentPeriod = Math.max(this.periodNanos, took * ADAPTIVE_COST_FACTOR);
+				this.period.set(currentPeriod / NANOS_PER_SECOND);
+			}
+
+			long now = System.nanoTime();
+			this.nextTick += currentPeriod;
+			if (this.nextTick < now) {
+				long missed = (now - this.nextTick) / currentPeriod + 1;
+				this.overruns.inc(missed);
+				this.nextTick += missed * currentPeriod;
+			}
+
+			try {
+				scheduler.schedule(this, this.nextTick - now, TimeUnit.NANOSECONDS);
+			} catch (final RejectedExecutionException e) {
+				log.debug("Metrics job {} not rescheduled, the scheduler is shut down", this.name);
 			}
-		}, 0, period.getSeconds(), TimeUnit.SECONDS);
+		}
 	}
 }
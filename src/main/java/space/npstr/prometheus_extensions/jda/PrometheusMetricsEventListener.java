@@ -61,7 +61,7 @@ class PrometheusMetricsEventListener extends ListenerAdapter {
 
 	@Override
 	public void onGenericEvent(GenericEvent event) {
-		this.discordMetrics.getEvents().labelValues(event.getClass().getSimpleName()).inc();
+		this.discordMetrics.countEvent(event.getClass());
 	}
 
 	@Override
@@ -84,16 +84,13 @@ class PrometheusMetricsEventListener extends ListenerAdapter {
 	@Override
 	public void onHttpRequest(final HttpRequestEvent event) {
 		final Response response = event.getResponse();
+		countRequest(response == null ? NO_RESPONSE_CODE : response.code, event.getRoute().getBaseRoute());
+	}
 
-		final String code = Optional.ofNullable(response)
-			.map(r -> r.code)
-			.orElse(NO_RESPONSE_CODE)
-			.toString();
-		final Route route = event.getRoute().getBaseRoute();
-
+	void countRequest(final int code, final Route route) {
 		final String routeName = this.routeNamer.lookUpRouteName(route);
 
-		this.httpRequests.labelValues(code, routeName).inc();
+		this.httpRequests.labelValues(Integer.toString(code), routeName).inc();
 	}
 
 
@@ -25,23 +25,29 @@
 package space.npstr.prometheus_extensions.jda;
 
 import java.lang.reflect.Field;
-import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.stream.Stream;
+import net.dv8tion.jda.api.requests.Method;
 import net.dv8tion.jda.api.requests.Route;
 
 import static java.lang.reflect.Modifier.isStatic;
 
 /**
  * BiG uGlY hAcKs in here
+ * <p>
+ * The reflective lookup of the static routes happens once on construction. Looking up a name afterwards is a single
+ * identity hash map read, which matters because it runs for every single request JDA sends.
  */
 class RouteNamer {
 
-	private final List<Field> staticRouteFields;
+	private final Map<Route, String> staticRouteNames;
+	private final Map<Method, String> customRouteNames;
 
 	public RouteNamer() {
-		this.staticRouteFields = Stream.of(
+		this.staticRouteNames = new IdentityHashMap<>();
+		Stream.of(
 			Route.Misc.class,
 			Route.Applications.class,
 			Route.Interactions.class,
@@ -58,22 +64,34 @@ class RouteNamer {
 			Route.Invites.class,
 			Route.Templates.class
 		)
-			.flatMap(c -> Arrays.stream(c.getDeclaredFields()))
+			.flatMap(c -> Stream.of(c.getDeclaredFields()))
 			.filter(f -> isStatic(f.getModifiers()))
-			.collect(Collectors.toList());
+			.filter(f -> Route.class.isAssignableFrom(f.getType()))
+			.forEach(this::indexRoute);
+
+		this.customRouteNames = new EnumMap<>(Method.class);
+		for (Method method : Method.values()) {
+			this.customRouteNames.put(method, "CUSTOM_" + method.name());
+		}
+	}
+
+	private void indexRoute(Field field) {
+		try {
+			Route route = (Route) field.get(null);
+			if (route != null) {
+				// first one wins, same as the linear search this replaced
+				this.staticRouteNames.putIfAbsent(route, field.getName());
+			}
+		} catch (final Exception ignored) {
+			// not accessible, can't be looked up either
+		}
 	}
 
 	public String lookUpRouteName(final Route route) {
-		return this.staticRouteFields.stream()
-			.filter(f -> {
-				try {
-					return f.get(null) == route;
-				} catch (final Exception e) {
-					return false;
-				}
-			})
-			.map(Field::getName)
-			.findFirst()
-			.orElse("CUSTOM_" + route.getMethod().name());
+		String name = this.staticRouteNames.get(route);
+		if (name != null) {
+			return name;
+		}
+		return this.customRouteNames.get(route.getMethod());
 	}
 }
@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches an expensive value for a maximum age. Concurrent callers that find the value stale share a single
+ * computation: one of them computes, the others wait for it and then use its result, however old it is by then.
+ */
+class SingleFlightCache<T> {
+
+	private static final Logger log = LoggerFactory.getLogger(SingleFlightCache.class);
+
+	private final long maxAgeNanos;
+	private final Supplier<T> loader;
+	private final Object loadLock = new Object();
+
+	private volatile Entry<T> entry;
+
+	SingleFlightCache(final Duration maxAge, final Supplier<T> loader) {
+		this.maxAgeNanos = maxAge.toNanos();
+		this.loader = loader;
+	}
+
+	/**
+	 * @return the cached value, or a freshly computed one if it is older than the max age. If the computation fails,
+	 * the stale value is returned, if there is one.
+	 */
+	T get() {
+		Entry<T> current = this.entry;
+		if (isFresh(current)) {
+			return current.value();
+		}
+
+		synchronized (this.loadLock) {
+			final Entry<T> latest = this.entry;
+			if (latest != current) { // computed by another caller while we were waiting
+				return latest.value();
+			}
+			try {
+				final T value = this.loader.get();
+				this.entry = new Entry<>(value, System.nanoTime());
+				return value;
+			} catch (final RuntimeException e) {
+				if (current == null) {
+					throw e;
+				}
+				log.warn("Failed to compute value, using stale one", e);
+				return current.value();
+			}
+		}
+	}
+
+	/**
+	 * @return the cached value regardless of its age, without computing it, null if there is none yet
+	 */
+	T getCached() {
+		final Entry<T> current = this.entry;
+		return current == null ? null : current.value();
+	}
+
+	private boolean isFresh(final Entry<T> entry) {
+		return entry != null && System.nanoTime() - entry.loadedAt() < this.maxAgeNanos;
+	}
+
+	private record Entry<T>(T value, long loadedAt) {}
+}
@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import io.prometheus.metrics.core.datapoints.GaugeDataPoint;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import java.util.Arrays;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.voice.GuildVoiceUpdateEvent;
+import net.dv8tion.jda.api.events.session.SessionInvalidateEvent;
+import net.dv8tion.jda.api.events.session.ShutdownEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+
+/**
+ * Tracks the guilds where we are connected to an audio channel from our own voice updates, so the connected voice
+ * channels gauge is exact in real time.
+ * <p>
+ * Shards may miss updates, for example while reconnecting, so the tracked guilds of a shard are replaced by a full
+ * recount from time to time, see {@link #reconcile(LongOpenHashSet, int)}.
+ */
+class VoiceConnectionTracker extends ListenerAdapter {
+
+	private final GaugeDataPoint connectedVoiceChannels;
+
+	// connected guild ids indexed by shard id, guarded by this
+	private LongOpenHashSet[] connectedGuilds;
+	// guarded by this
+	private int connected = 0;
+
+	VoiceConnectionTracker(final GaugeDataPoint connectedVoiceChannels, final int shardsTotal) {
+		this.connectedVoiceChannels = connectedVoiceChannels;
+		this.connectedGuilds = new LongOpenHashSet[Math.max(1, shardsTotal)];
+	}
+
+	/**
+	 * Replace the tracked guilds of a shard with a recount.
+	 */
+	public synchronized void reconcile(final LongOpenHashSet guildIds, final int shardId) {
+		final LongOpenHashSet guilds = guilds(shardId);
+		this.connected += guildIds.size() - guilds.size();
+		guilds.clear();
+		guilds.addAll(guildIds);
+		publish();
+	}
+
+	@Override
+	public void onGuildVoiceUpdate(final GuildVoiceUpdateEvent event) {
+		final JDA jda = event.getJDA();
+		if (event.getMember().getIdLong() != jda.getSelfUser().getIdLong()) {
+			return;
+		}
+
+		final int shardId = jda.getShardInfo().getShardId();
+		final long guildId = event.getGuild().getIdLong();
+		if (event.getChannelJoined() != null) { // includes moves
+			add(shardId, guildId);
+		} else if (event.getChannelLeft() != null) {
+			remove(shardId, guildId);
+		}
+	}
+
+	@Override
+	public void onGuildLeave(final GuildLeaveEvent event) {
+		remove(event.getJDA().getShardInfo().getShardId(), event.getGuild().getIdLong());
+	}
+
+	@Override
+	public void onSessionInvalidate(final SessionInvalidateEvent event) {
+		// JDA dropped all caches of the shard, including its audio connections
+		clear(event.getJDA().getShardInfo().getShardId());
+	}
+
+	@Override
+	public void onShutdown(final ShutdownEvent event) {
+		clear(event.getJDA().getShardInfo().getShardId());
+	}
+
+	private synchronized void add(final int shardId, final long guildId) {
+		if (guilds(shardId).add(guildId)) {
+			this.connected++;
+			publish();
+		}
+	}
+
+	private synchronized void remove(final int shardId, final long guildId) {
+		if (guilds(shardId).remove(guildId)) {
+			this.connected--;
+			publish();
+		}
+	}
+
+	private synchronized void clear(final int shardId) {
+		final LongOpenHashSet guilds = guilds(shardId);
+		this.connected -= guilds.size();
+		guilds.clear();
+		publish();
+	}
+
+	// guarded by this
+	private LongOpenHashSet guilds(final int shardId) {
+		if (shardId >= this.connectedGuilds.length) {
+			this.connectedGuilds = Arrays.copyOf(this.connectedGuilds, shardId + 1);
+		}
+		LongOpenHashSet guilds = this.connectedGuilds[shardId];
+		if (guilds == null) {
+			guilds = new LongOpenHashSet();
+			this.connectedGuilds[shardId] = guilds;
+		}
+		return guilds;
+	}
+
+	// guarded by this
+	private void publish() {
+		this.connectedVoiceChannels.set(this.connected);
+	}
+}
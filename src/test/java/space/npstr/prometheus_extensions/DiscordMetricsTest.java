@@ -0,0 +1,180 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.SummarySnapshot;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiscordMetricsTest {
+
+	@Test
+	void stripedEventCountsMatchPlainOnes() {
+		PrometheusRegistry plainRegistry = new PrometheusRegistry();
+		PrometheusRegistry stripedRegistry = new PrometheusRegistry();
+		DiscordMetrics plain = new DiscordMetrics(plainRegistry);
+		DiscordMetrics striped = new DiscordMetrics(stripedRegistry, DiscordMetricsOptions.builder()
+			.stripedEventCounts(true)
+			.build());
+
+		for (DiscordMetrics discordMetrics : new DiscordMetrics[]{plain, striped}) {
+			for (int i = 0; i < 3; i++) {
+				discordMetrics.countEvent(String.class);
+			}
+			discordMetrics.countEvent(Integer.class);
+		}
+
+		assertThat(striped.getEvents()).isNull();
+		assertThat(eventCounts(stripedRegistry))
+			.isEqualTo(eventCounts(plainRegistry))
+			.containsEntry("String", 3.0)
+			.containsEntry("Integer", 1.0);
+	}
+
+	@Test
+	void restRequestsAreASummaryByDefault() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		DiscordMetrics discordMetrics = new DiscordMetrics(registry);
+
+		discordMetrics.discordRestRequest("GET", "/users/@me", "200", "").observe(0.1);
+
+		assertThat(snapshot(registry, "discord_rest_request_seconds")).isInstanceOf(SummarySnapshot.class);
+		assertThat(discordMetrics.getDiscordRestRequestsHistogram()).isNull();
+	}
+
+	@Test
+	void nativeRestRequestsHistogram() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		DiscordMetrics discordMetrics = new DiscordMetrics(registry, DiscordMetricsOptions.builder()
+			.histogramMode(HistogramMode.NATIVE)
+			.restRequests(DiscordMetricsOptions.MetricType.HISTOGRAM)
+			.build());
+
+		discordMetrics.discordRestRequest("GET", "/users/@me", "200", "").observe(0.1);
+		discordMetrics.getDiscordRestRequestResponseTime().observe(0.1);
+
+		assertThat(discordMetrics.getDiscordRestRequests()).isNull();
+		for (String name : new String[]{"discord_rest_request_seconds", "discord_rest_request_response_time_seconds"}) {
+			MetricSnapshot snapshot = snapshot(registry, name);
+			assertThat(snapshot).isInstanceOf(HistogramSnapshot.class);
+			HistogramSnapshot.HistogramDataPointSnapshot dataPoint = ((HistogramSnapshot) snapshot).getDataPoints().get(0);
+			assertThat(dataPoint.hasNativeHistogramData()).isTrue();
+			assertThat(dataPoint.hasClassicHistogramData()).isFalse();
+		}
+	}
+
+	@Test
+	void classicHistogram() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		DiscordMetrics discordMetrics = new DiscordMetrics(registry, DiscordMetricsOptions.builder()
+			.histogramMode(HistogramMode.CLASSIC)
+			.build());
+
+		discordMetrics.getDiscordRestRequestResponseTime().observe(0.1);
+
+		HistogramSnapshot snapshot = (HistogramSnapshot) snapshot(registry, "discord_rest_request_response_time_seconds");
+		assertThat(snapshot.getDataPoints().get(0).hasNativeHistogramData()).isFalse();
+		assertThat(snapshot.getDataPoints().get(0).hasClassicHistogramData()).isTrue();
+	}
+
+	@Test
+	void minimalProfile() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		DiscordMetrics discordMetrics = new DiscordMetrics(registry, DiscordMetricsOptions.builder()
+			.profile(DiscordMetricsOptions.Profile.MINIMAL)
+			.build());
+
+		discordMetrics.countEvent(String.class);
+		discordMetrics.countEvent(Integer.class);
+
+		assertThat(discordMetrics.discordRestRequest("GET", "/users/@me", "200", "")).isNull();
+		assertThat(registry.scrape().stream().map(snapshot -> snapshot.getMetadata().getName()))
+			.doesNotContain("discord_rest_request_seconds");
+		CounterSnapshot events = (CounterSnapshot) snapshot(registry, "discord_events_received");
+		assertThat(events.getDataPoints()).hasSize(1);
+		assertThat(events.getDataPoints().get(0).getValue()).isEqualTo(2.0);
+	}
+
+	@Test
+	void rateLimitsAreRegisteredOnFirstUse() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		DiscordMetrics discordMetrics = new DiscordMetrics(registry);
+
+		assertThat(registry.scrape().stream().map(snapshot -> snapshot.getMetadata().getName()))
+			.doesNotContain("discord_ratelimit_hits", "discord_ratelimit_bucket_remaining");
+
+		assertThat(discordMetrics.getRateLimits()).isSameAs(discordMetrics.getRateLimits());
+		discordMetrics.getRateLimits().getHits().labelValues("global").inc();
+		CounterSnapshot hits = (CounterSnapshot) snapshot(registry, "discord_ratelimit_hits");
+		assertThat(hits.getDataPoints().get(0).getValue()).isEqualTo(1.0);
+	}
+
+	@Test
+	void restRequestLabelsCanBeDropped() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		DiscordMetrics discordMetrics = new DiscordMetrics(registry, DiscordMetricsOptions.builder()
+			.restRequestLabels(DiscordMetricsOptions.RestLabel.METHOD, DiscordMetricsOptions.RestLabel.STATUS)
+			.build());
+
+		discordMetrics.discordRestRequest("GET", "/users/@me", "200", "").observe(0.1);
+		discordMetrics.discordRestRequest("GET", "/gateway/bot", "200", "").observe(0.1);
+
+		SummarySnapshot snapshot = (SummarySnapshot) snapshot(registry, "discord_rest_request_seconds");
+		assertThat(snapshot.getDataPoints()).hasSize(1);
+		SummarySnapshot.SummaryDataPointSnapshot dataPoint = snapshot.getDataPoints().get(0);
+		assertThat(dataPoint.getCount()).isEqualTo(2);
+		assertThat(dataPoint.getLabels().get("method")).isEqualTo("GET");
+		assertThat(dataPoint.getLabels().get("status")).isEqualTo("200");
+		assertThat(dataPoint.getLabels().contains("uri")).isFalse();
+	}
+
+	private static MetricSnapshot snapshot(PrometheusRegistry registry, String name) {
+		for (MetricSnapshot snapshot : registry.scrape()) {
+			if (snapshot.getMetadata().getName().equals(name)) {
+				return snapshot;
+			}
+		}
+		throw new AssertionError("No metric named " + name);
+	}
+
+	private static Map<String, Double> eventCounts(PrometheusRegistry registry) {
+		Map<String, Double> counts = new HashMap<>();
+		for (MetricSnapshot snapshot : registry.scrape()) {
+			if (snapshot.getMetadata().getName().equals("discord_events_received")) {
+				for (CounterSnapshot.CounterDataPointSnapshot dataPoint : ((CounterSnapshot) snapshot).getDataPoints()) {
+					counts.put(dataPoint.getLabels().get("class"), dataPoint.getValue());
+				}
+			}
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.DataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class OkHttpEventCounterTest {
+
+	private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("discord.com", 443);
+
+	private final Call call = mock(Call.class);
+	private final Connection connection = mock(Connection.class);
+	private final Request request = new Request.Builder().url("https://discord.com/api/v10/gateway").build();
+	private final Response response = new Response.Builder()
+		.request(this.request)
+		.protocol(Protocol.HTTP_2)
+		.code(200)
+		.message("OK")
+		.build();
+
+	@Test
+	void newTlsConnection() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		EventListener listener = OkHttpEventCounter.timingFactory("test", new OkHttpMetrics(registry)).create(this.call);
+
+		listener.callStart(this.call);
+		listener.dnsStart(this.call, "discord.com");
+		listener.dnsEnd(this.call, "discord.com", List.of());
+		listener.connectStart(this.call, ADDRESS, Proxy.NO_PROXY);
+		listener.secureConnectStart(this.call);
+		listener.secureConnectEnd(this.call, null);
+		listener.connectEnd(this.call, ADDRESS, Proxy.NO_PROXY, Protocol.HTTP_2);
+		listener.connectionAcquired(this.call, this.connection);
+		exchange(listener);
+		listener.connectionReleased(this.call, this.connection);
+		listener.callEnd(this.call);
+
+		assertThat(histogramCount(registry, "okhttp_call_duration_seconds")).isEqualTo(1);
+		assertThat(histogramCount(registry, "okhttp_dns_duration_seconds")).isEqualTo(1);
+		assertThat(histogramCount(registry, "okhttp_connect_duration_seconds")).isEqualTo(1);
+		assertThat(histogramCount(registry, "okhttp_tls_handshake_duration_seconds")).isEqualTo(1);
+		assertThat(histogramCount(registry, "okhttp_time_to_first_byte_seconds")).isEqualTo(1);
+		assertThat(histogramCount(registry, "okhttp_response_body_duration_seconds")).isEqualTo(1);
+		assertThat(counter(registry, "okhttp_connections_acquired", "connection", "new")).isEqualTo(1.0);
+		assertThat(counter(registry, "okhttp_connections_acquired", "connection", "pooled")).isZero();
+		assertThat(counter(registry, "okhttp_connections_opened", "protocol", "h2")).isEqualTo(1.0);
+		assertThat(counter(registry, "okhttp_events", "event", "callEnd")).isEqualTo(1.0);
+	}
+
+	@Test
+	void pooledConnection() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		EventListener listener = OkHttpEventCounter.timingFactory("test", new OkHttpMetrics(registry)).create(this.call);
+
+		listener.callStart(this.call);
+		listener.connectionAcquired(this.call, this.connection);
+		exchange(listener);
+		listener.callEnd(this.call);
+
+		assertThat(histogramCount(registry, "okhttp_call_duration_seconds")).isEqualTo(1);
+		assertThat(histogramCount(registry, "okhttp_dns_duration_seconds")).isZero();
+		assertThat(histogramCount(registry, "okhttp_connect_duration_seconds")).isZero();
+		assertThat(histogramCount(registry, "okhttp_time_to_first_byte_seconds")).isEqualTo(1);
+		assertThat(counter(registry, "okhttp_connections_acquired", "connection", "pooled")).isEqualTo(1.0);
+		assertThat(counter(registry, "okhttp_connections_acquired", "connection", "new")).isZero();
+	}
+
+	@Test
+	void plaintextConnectionThenFollowUpOnTheSameConnection() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		EventListener listener = OkHttpEventCounter.timingFactory("test", new OkHttpMetrics(registry)).create(this.call);
+
+		listener.callStart(this.call);
+		listener.connectStart(this.call, ADDRESS, Proxy.NO_PROXY);
+		listener.connectEnd(this.call, ADDRESS, Proxy.NO_PROXY, Protocol.HTTP_1_1);
+		listener.connectionAcquired(this.call, this.connection);
+		exchange(listener);
+		// a redirect of the same call
+		listener.connectionAcquired(this.call, this.connection);
+		exchange(listener);
+		listener.callEnd(this.call);
+
+		assertThat(histogramCount(registry, "okhttp_connect_duration_seconds")).isEqualTo(1);
+		assertThat(histogramCount(registry, "okhttp_tls_handshake_duration_seconds")).isZero();
+		assertThat(histogramCount(registry, "okhttp_time_to_first_byte_seconds")).isEqualTo(2);
+		assertThat(counter(registry, "okhttp_connections_acquired", "connection", "new")).isEqualTo(1.0);
+		assertThat(counter(registry, "okhttp_connections_acquired", "connection", "pooled")).isEqualTo(1.0);
+		assertThat(counter(registry, "okhttp_connections_opened", "protocol", "http/1.1")).isEqualTo(1.0);
+	}
+
+	@Test
+	void failedConnect() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		EventListener listener = OkHttpEventCounter.timingFactory("test", new OkHttpMetrics(registry)).create(this.call);
+		IOException failure = new IOException("connection refused");
+
+		listener.callStart(this.call);
+		listener.connectStart(this.call, ADDRESS, Proxy.NO_PROXY);
+		listener.secureConnectStart(this.call);
+		listener.connectFailed(this.call, ADDRESS, Proxy.NO_PROXY, null, failure);
+		// events out of order must not time a phase that was not started
+		listener.secureConnectEnd(this.call, null);
+		listener.connectEnd(this.call, ADDRESS, Proxy.NO_PROXY, null);
+		listener.responseHeadersStart(this.call);
+		listener.callFailed(this.call, failure);
+
+		assertThat(histogramCount(registry, "okhttp_call_duration_seconds")).isEqualTo(1);
+		// the TCP connect ended when the handshake started, only the handshake failed
+		assertThat(histogramCount(registry, "okhttp_connect_duration_seconds")).isEqualTo(1);
+		assertThat(histogramCount(registry, "okhttp_tls_handshake_duration_seconds")).isZero();
+		assertThat(histogramCount(registry, "okhttp_time_to_first_byte_seconds")).isZero();
+		assertThat(counter(registry, "okhttp_events", "event", "connectFailed")).isEqualTo(1.0);
+		assertThat(counter(registry, "okhttp_events", "event", "callFailed")).isEqualTo(1.0);
+	}
+
+	private void exchange(EventListener listener) {
+		listener.requestHeadersStart(this.call);
+		listener.requestHeadersEnd(this.call, this.request);
+		listener.responseHeadersStart(this.call);
+		listener.responseHeadersEnd(this.call, this.response);
+		listener.responseBodyStart(this.call);
+		listener.responseBodyEnd(this.call, 100);
+	}
+
+	private static long histogramCount(PrometheusRegistry registry, String name) {
+		HistogramSnapshot snapshot = (HistogramSnapshot) snapshot(registry, name);
+		long count = 0;
+		for (HistogramSnapshot.HistogramDataPointSnapshot dataPoint : snapshot.getDataPoints()) {
+			assertInstance(dataPoint);
+			count += dataPoint.getCount();
+		}
+		return count;
+	}
+
+	private static double counter(PrometheusRegistry registry, String name, String labelName, String labelValue) {
+		CounterSnapshot snapshot = (CounterSnapshot) snapshot(registry, name);
+		for (CounterSnapshot.CounterDataPointSnapshot dataPoint : snapshot.getDataPoints()) {
+			assertInstance(dataPoint);
+			if (dataPoint.getLabels().get(labelName).equals(labelValue)) {
+				return dataPoint.getValue();
+			}
+		}
+		return 0;
+	}
+
+	private static void assertInstance(DataPointSnapshot dataPoint) {
+		assertThat(dataPoint.getLabels().get("instance")).isEqualTo("test");
+	}
+
+	private static MetricSnapshot snapshot(PrometheusRegistry registry, String name) {
+		for (MetricSnapshot snapshot : registry.scrape()) {
+			if (snapshot.getMetadata().getName().equals(name)) {
+				return snapshot;
+			}
+		}
+		throw new AssertionError("No metric named " + name);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import java.util.Arrays;
+import java.util.List;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryLatencyListenerTest {
+
+	@Test
+	void typeLabel() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		QueryLatencyListener listener = new QueryLatencyListener(registry);
+
+		execute(listener, "main", true, "SELECT * FROM users WHERE id = ?");
+		execute(listener, "main", true, "insert into users (id) values (?)");
+		execute(listener, "main", true, "UPDATE users SET name = ? WHERE id = ?");
+		execute(listener, "main", true, "DELETE FROM users WHERE id = ?");
+		execute(listener, "main", true, "CREATE TABLE users (id BIGINT)");
+		execute(listener, "main", true, "SELECT 1");
+
+		assertThat(count(registry, "main", "select", "success")).isEqualTo(2);
+		assertThat(count(registry, "main", "insert", "success")).isEqualTo(1);
+		assertThat(count(registry, "main", "update", "success")).isEqualTo(1);
+		assertThat(count(registry, "main", "delete", "success")).isEqualTo(1);
+		assertThat(count(registry, "main", "other", "success")).isEqualTo(1);
+	}
+
+	@Test
+	void mixedBatchIsOther() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		QueryLatencyListener listener = new QueryLatencyListener(registry);
+
+		execute(listener, "main", true, "INSERT INTO users (id) VALUES (1)", "INSERT INTO users (id) VALUES (2)");
+		execute(listener, "main", true, "INSERT INTO users (id) VALUES (3)", "DELETE FROM users WHERE id = 1");
+
+		assertThat(count(registry, "main", "insert", "success")).isEqualTo(1);
+		assertThat(count(registry, "main", "other", "success")).isEqualTo(1);
+	}
+
+	@Test
+	void resultLabel() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		QueryLatencyListener listener = new QueryLatencyListener(registry);
+
+		execute(listener, "main", true, "SELECT 1");
+		execute(listener, "main", false, "SELECT 1");
+		execute(listener, "main", false, "SELECT 1");
+
+		assertThat(count(registry, "main", "select", "success")).isEqualTo(1);
+		assertThat(count(registry, "main", "select", "failure")).isEqualTo(2);
+	}
+
+	@Test
+	void missingDataSourceName() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		QueryLatencyListener listener = new QueryLatencyListener(registry);
+
+		execute(listener, null, true, "SELECT 1");
+
+		assertThat(count(registry, "", "select", "success")).isEqualTo(1);
+	}
+
+	private static void execute(QueryLatencyListener listener, String dataSourceName, boolean success,
+	                            String... queries) {
+		ExecutionInfo execInfo = new ExecutionInfo();
+		execInfo.setDataSourceName(dataSourceName);
+		execInfo.setSuccess(success);
+		List<QueryInfo> queryInfos = Arrays.stream(queries).map(QueryInfo::new).toList();
+
+		listener.beforeQuery(execInfo, queryInfos);
+		listener.afterQuery(execInfo, queryInfos);
+	}
+
+	private static long count(PrometheusRegistry registry, String dataSourceName, String type, String result) {
+		for (MetricSnapshot snapshot : registry.scrape()) {
+			if (!snapshot.getMetadata().getName().equals("jdbc_query_duration_seconds")) {
+				continue;
+			}
+			for (HistogramSnapshot.HistogramDataPointSnapshot dataPoint : ((HistogramSnapshot) snapshot).getDataPoints()) {
+				if (dataPoint.getLabels().get("datasource").equals(dataSourceName)
+					&& dataPoint.getLabels().get("type").equals(type)
+					&& dataPoint.getLabels().get("result").equals(result)) {
+					return dataPoint.getCount();
+				}
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpaceSavingTest {
+
+	@Test
+	void boundsTheTrackedWeights() {
+		SpaceSaving<Integer> sketch = new SpaceSaving<>(500);
+		Map<Integer, Double> exact = new HashMap<>();
+		Random random = new Random(42);
+
+		// skewed keys, with a long tail that keeps evicting
+		for (int i = 0; i < 200_000; i++) {
+			int key = (int) (Math.pow(random.nextDouble(), 3) * 5000);
+			double weight = 1 + random.nextInt(5);
+			sketch.add(key, weight);
+			exact.merge(key, weight, Double::sum);
+		}
+
+		List<SpaceSaving.Item<Integer>> items = sketch.top(500);
+		assertThat(items).hasSize(500);
+		for (SpaceSaving.Item<Integer> item : items) {
+			double weight = exact.getOrDefault(item.key(), 0.0);
+			assertThat(item.weight()).isGreaterThanOrEqualTo(weight);
+			assertThat(item.weight() - item.error()).isLessThanOrEqualTo(weight);
+		}
+		assertThat(sketch.top(3)).extracting(SpaceSaving.Item::key).containsExactly(0, 1, 2);
+	}
+}
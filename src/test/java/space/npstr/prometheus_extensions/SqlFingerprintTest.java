@@ -0,0 +1,65 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqlFingerprintTest {
+
+	@Test
+	void stripsLiterals() {
+		assertThat(SqlFingerprint.fingerprint("SELECT * FROM users WHERE id = 42 AND name = 'O''Brien'"))
+			.isEqualTo("SELECT * FROM users WHERE id = ? AND name = ?");
+		assertThat(SqlFingerprint.fingerprint("SELECT col1 FROM table2 WHERE x = -1.5e3"))
+			.isEqualTo("SELECT col1 FROM table2 WHERE x = -?");
+		assertThat(SqlFingerprint.fingerprint("INSERT INTO t (a, b) VALUES ('x', 2)"))
+			.isEqualTo("INSERT INTO t (a, b) VALUES (?)");
+	}
+
+	@Test
+	void collapsesListsCommentsAndWhitespace() {
+		assertThat(SqlFingerprint.fingerprint("select  *\n from t where id in (1, 2,3)"))
+			.isEqualTo("select * from t where id in (?)");
+		assertThat(SqlFingerprint.fingerprint("INSERT INTO t (a, b) VALUES (?, ?), (?, ?),(?, ?)"))
+			.isEqualTo(SqlFingerprint.fingerprint("INSERT INTO t (a, b) VALUES (1, 'x')"))
+			.isEqualTo("INSERT INTO t (a, b) VALUES (?)");
+		assertThat(SqlFingerprint.fingerprint("SELECT 1 -- comment\nFROM dual"))
+			.isEqualTo("SELECT ? FROM dual");
+		assertThat(SqlFingerprint.fingerprint("SELECT \"col 1\" FROM t /* hi */ WHERE a=0xFF"))
+			.isEqualTo("SELECT \"col 1\" FROM t WHERE a=?");
+	}
+
+	@Test
+	void hash() {
+		String fingerprint = SqlFingerprint.fingerprint("SELECT * FROM users WHERE id = 1");
+
+		assertThat(SqlFingerprint.hash(fingerprint))
+			.hasSize(8)
+			.isEqualTo(SqlFingerprint.hash(SqlFingerprint.fingerprint("SELECT * FROM users WHERE id = 2")))
+			.isNotEqualTo(SqlFingerprint.hash(SqlFingerprint.fingerprint("SELECT * FROM guilds WHERE id = 1")));
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions;
+
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ThreadPoolCollectorTest {
+
+	@Test
+	void instrumentedPool() throws Exception {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		ThreadPoolCollector collector = new ThreadPoolCollector(registry);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+		InstrumentedExecutorService executor = collector.instrument("test", pool);
+
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.execute(() -> {
+			running.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		running.await();
+
+		assertThat(executor.getInFlight()).isEqualTo(1);
+		assertThatThrownBy(() -> executor.execute(() -> {}))
+			.isInstanceOf(RejectedExecutionException.class);
+		assertThat(executor.getInFlight()).isEqualTo(1);
+
+		release.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(executor.getInFlight()).isZero();
+		assertThat(histogram(registry, "threadpool_queue_wait_seconds").getCount()).isEqualTo(1);
+		assertThat(histogram(registry, "threadpool_execution_seconds").getCount()).isEqualTo(1);
+		CounterSnapshot rejected = (CounterSnapshot) snapshot(registry, "threadpool_rejected_tasks");
+		assertThat(rejected.getDataPoints().get(0).getValue()).isEqualTo(1.0);
+		assertThat(counter(registry, "threadpool_instrumented_completed_tasks")).isEqualTo(1.0);
+		assertThat(gauge(registry, "threadpool_instrumented_running_tasks_current")).isZero();
+		assertThat(counter(registry, "threadpool_completed_tasks")).isEqualTo(1.0);
+		assertThat(gauge(registry, "threadpool_active_threads_current")).isZero();
+		assertThat(counter(registry, "threadpool_tasks")).isEqualTo(1.0);
+	}
+
+	@Test
+	void poolStats() {
+		PrometheusRegistry registry = new PrometheusRegistry();
+		ThreadPoolCollector collector = new ThreadPoolCollector(registry);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 4, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(10));
+		collector.addPool("test", pool);
+		try {
+			pool.execute(() -> {});
+			pool.execute(() -> {});
+
+			assertThat(gauge(registry, "threadpool_core_threads")).isEqualTo(2);
+			assertThat(gauge(registry, "threadpool_max_threads")).isEqualTo(4);
+			assertThat(gauge(registry, "threadpool_threads_current")).isEqualTo(2);
+			assertThat(gauge(registry, "threadpool_queue_remaining_capacity")).isBetween(8.0, 10.0);
+			assertThat(counter(registry, "threadpool_tasks")).isEqualTo(2.0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static double gauge(PrometheusRegistry registry, String name) {
+		return ((GaugeSnapshot) snapshot(registry, name)).getDataPoints().get(0).getValue();
+	}
+
+	private static double counter(PrometheusRegistry registry, String name) {
+		return ((CounterSnapshot) snapshot(registry, name)).getDataPoints().get(0).getValue();
+	}
+
+	private static HistogramSnapshot.HistogramDataPointSnapshot histogram(PrometheusRegistry registry, String name) {
+		return ((HistogramSnapshot) snapshot(registry, name)).getDataPoints().get(0);
+	}
+
+	private static MetricSnapshot snapshot(PrometheusRegistry registry, String name) {
+		for (MetricSnapshot snapshot : registry.scrape()) {
+			if (snapshot.getMetadata().getName().equals(name)) {
+				return snapshot;
+			}
+		}
+		throw new AssertionError("No metric named " + name);
+	}
+}
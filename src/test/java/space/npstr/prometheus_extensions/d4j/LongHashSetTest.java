@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.d4j;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongHashSetTest {
+
+	@Test
+	void behavesLikeASet() {
+		LongHashSet set = new LongHashSet();
+		Set<Long> reference = new HashSet<>();
+		Random random = new Random(42);
+
+		// a small key range forces lots of collisions and removals from the middle of probe sequences
+		for (int i = 0; i < 100_000; i++) {
+			long key = random.nextInt(1000) - 10;
+			switch (random.nextInt(3)) {
+				case 0 -> assertThat(set.add(key)).isEqualTo(reference.add(key));
+				case 1 -> assertThat(set.remove(key)).isEqualTo(reference.remove(key));
+				default -> assertThat(set.contains(key)).isEqualTo(reference.contains(key));
+			}
+			assertThat(set.size()).isEqualTo(reference.size());
+		}
+
+		for (long key = -10; key < 1000; key++) {
+			assertThat(set.contains(key)).isEqualTo(reference.contains(key));
+		}
+	}
+
+	@Test
+	void toArray() {
+		LongHashSet set = new LongHashSet();
+		set.add(0);
+		set.add(42);
+		set.add(Long.MIN_VALUE);
+		set.add(42);
+
+		assertThat(set.toArray()).containsExactlyInAnyOrder(0, 42, Long.MIN_VALUE);
+	}
+
+	@Test
+	void clear() {
+		LongHashSet set = new LongHashSet();
+		for (long key = 0; key < 10_000; key++) {
+			set.add(key);
+		}
+
+		set.clear();
+
+		assertThat(set.isEmpty()).isTrue();
+		assertThat(set.contains(0)).isFalse();
+		assertThat(set.contains(42)).isFalse();
+		assertThat(set.add(42)).isTrue();
+	}
+}
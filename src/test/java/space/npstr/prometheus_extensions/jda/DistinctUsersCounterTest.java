@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DistinctUsersCounterTest {
+
+	@Test
+	void countDistinctSortedMatchesASet() {
+		Random random = new Random(42);
+		// empty and single id shards between the regular ones
+		int[] shardSizes = {0, 1000, 1, 0, 5000, 1, 3000, 0};
+		long[][] shards = new long[shardSizes.length][];
+		Set<Long> exact = new HashSet<>();
+
+		for (int shard = 0; shard < shards.length; shard++) {
+			Set<Long> ids = new HashSet<>();
+			while (ids.size() < shardSizes[shard]) {
+				// a small id range, so that the shards overlap a lot
+				ids.add((long) random.nextInt(10_000) - 100);
+			}
+			// spare capacity after the ids, like the reused buffers have
+			long[] buffer = new long[shardSizes[shard] + 10];
+			Arrays.fill(buffer, Long.MIN_VALUE);
+			int i = 0;
+			for (long id : ids) {
+				buffer[i++] = id;
+			}
+			Arrays.sort(buffer, 0, shardSizes[shard]);
+			shards[shard] = buffer;
+			exact.addAll(ids);
+		}
+
+		assertThat(DistinctUsersCounter.countDistinctSorted(shards, shardSizes, shards.length))
+			.isEqualTo(exact.size());
+	}
+
+	@Test
+	void countDistinctSortedEdgeCases() {
+		long[][] empty = {new long[0], new long[4]};
+		assertThat(DistinctUsersCounter.countDistinctSorted(empty, new int[]{0, 0}, 2)).isZero();
+
+		long[][] single = {{42}};
+		assertThat(DistinctUsersCounter.countDistinctSorted(single, new int[]{1}, 1)).isEqualTo(1);
+
+		// zero must not be mistaken for the initial state
+		long[][] sameIds = {{0}, {0, 7}, {-3, 0}};
+		assertThat(DistinctUsersCounter.countDistinctSorted(sameIds, new int[]{1, 2, 2}, 3)).isEqualTo(3);
+
+		// only the first arrayCount arrays are counted
+		long[][] partial = {{1, 2}, {3}};
+		assertThat(DistinctUsersCounter.countDistinctSorted(partial, new int[]{2, 1}, 1)).isEqualTo(2);
+	}
+}
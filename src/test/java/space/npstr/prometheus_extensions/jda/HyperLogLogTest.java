@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class HyperLogLogTest {
+
+	@Test
+	void estimateIsWithinErrorBound() {
+		double relativeError = 0.02;
+		HyperLogLog sketch = new HyperLogLog(HyperLogLog.precisionFor(relativeError));
+		Set<Long> exact = new HashSet<>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 500_000; i++) {
+			long userId = snowflake(random);
+			sketch.add(userId);
+			exact.add(userId);
+			if (i % 3 == 0) { // users are shared across shards, the sketch must not count them twice
+				sketch.add(userId);
+			}
+		}
+
+		// 3 standard errors, this test is deterministic thanks to the seed anyway
+		assertThat((double) sketch.estimate())
+			.isCloseTo(exact.size(), within(exact.size() * relativeError * 3));
+	}
+
+	@Test
+	void smallCardinalitiesAreAccurate() {
+		HyperLogLog sketch = new HyperLogLog(HyperLogLog.precisionFor(0.02));
+		Random random = new Random(42);
+
+		for (int i = 0; i < 100; i++) {
+			sketch.add(snowflake(random));
+		}
+
+		assertThat(sketch.estimate()).isBetween(98L, 102L);
+	}
+
+	@Test
+	void mergedShardSketchesEqualOneSketch() {
+		int precision = HyperLogLog.precisionFor(0.02);
+		HyperLogLog all = new HyperLogLog(precision);
+		HyperLogLog merged = new HyperLogLog(precision);
+		HyperLogLog shard = new HyperLogLog(precision);
+		Random random = new Random(42);
+
+		for (int shardId = 0; shardId < 10; shardId++) {
+			shard.clear();
+			for (int i = 0; i < 10_000; i++) {
+				long userId = snowflake(random);
+				all.add(userId);
+				shard.add(userId);
+			}
+			merged.merge(shard);
+		}
+
+		assertThat(merged.estimate()).isEqualTo(all.estimate());
+	}
+
+	@Test
+	void precisionForErrorBound() {
+		assertThat(HyperLogLog.precisionFor(0.02)).isEqualTo(12);
+		assertThat(HyperLogLog.precisionFor(0.01)).isEqualTo(14);
+		assertThat(HyperLogLog.precisionFor(0.5)).isEqualTo(HyperLogLog.MIN_PRECISION);
+		assertThat(HyperLogLog.precisionFor(0.0001)).isEqualTo(HyperLogLog.MAX_PRECISION);
+		assertThatThrownBy(() -> HyperLogLog.precisionFor(0))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	/**
+	 * Snowflakes are anything but uniformly distributed: millis since the Discord epoch, followed by 22 bits of
+	 * worker, process and increment.
+	 */
+	private static long snowflake(Random random) {
+		long millisSinceDiscordEpoch = (long) (random.nextDouble() * 300_000_000_000L);
+		return (millisSinceDiscordEpoch << 22) | random.nextInt(1 << 22);
+	}
+}
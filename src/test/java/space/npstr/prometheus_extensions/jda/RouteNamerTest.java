@@ -72,4 +72,13 @@ class RouteNamerTest {
 
 	}
 
+	@Test
+	void customRouteNamesAreCached() {
+		String first = this.routeNamer.lookUpRouteName(Route.custom(Method.GET, "/foo"));
+		String second = this.routeNamer.lookUpRouteName(Route.custom(Method.GET, "/bar"));
+
+		assertThat(first).isEqualTo("CUSTOM_GET");
+		assertThat(second).isSameAs(first);
+	}
+
 }
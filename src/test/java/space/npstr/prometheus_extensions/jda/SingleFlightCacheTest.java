@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2026 Dennis Neufeld
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package space.npstr.prometheus_extensions.jda;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightCacheTest {
+
+	@Test
+	void concurrentCallersShareOneComputation() throws Exception {
+		assertSharedComputation(Duration.ofHours(1));
+	}
+
+	@Test
+	void waitersUseTheComputationTheyWaitedOnRegardlessOfItsAge() throws Exception {
+		assertSharedComputation(Duration.ofNanos(1));
+	}
+
+	private static void assertSharedComputation(Duration maxAge) throws Exception {
+		int callers = 8;
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		SingleFlightCache<Integer> cache = new SingleFlightCache<>(maxAge, () -> {
+			loads.incrementAndGet();
+			loading.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return 42;
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int i = 0; i < callers; i++) {
+				results.add(executor.submit(cache::get));
+			}
+			assertThat(loading.await(10, TimeUnit.SECONDS)).isTrue();
+			// give the other callers a chance to pile up behind the running computation
+			Thread.sleep(100);
+			release.countDown();
+
+			for (Future<Integer> result : results) {
+				assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo(42);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertThat(loads).hasValue(1);
+		assertThat(cache.getCached()).isEqualTo(42);
+	}
+
+	@Test
+	void freshValueIsNotRecomputed() {
+		AtomicInteger loads = new AtomicInteger();
+		SingleFlightCache<Integer> cache = new SingleFlightCache<>(Duration.ofHours(1), loads::incrementAndGet);
+
+		assertThat(cache.get()).isEqualTo(1);
+		assertThat(cache.get()).isEqualTo(1);
+		assertThat(loads).hasValue(1);
+	}
+
+	@Test
+	void staleValueOnFailure() {
+		AtomicInteger loads = new AtomicInteger();
+		SingleFlightCache<Integer> cache = new SingleFlightCache<>(Duration.ZERO, () -> {
+			if (loads.incrementAndGet() > 1) {
+				throw new IllegalStateException("boom");
+			}
+			return 42;
+		});
+
+		assertThat(cache.get()).isEqualTo(42);
+		assertThat(cache.get()).isEqualTo(42);
+		assertThat(loads).hasValue(2);
+	}
+
+	@Test
+	void firstFailureIsThrown() {
+		SingleFlightCache<Integer> cache = new SingleFlightCache<>(Duration.ofHours(1), () -> {
+			throw new IllegalStateException("boom");
+		});
+
+		assertThatThrownBy(cache::get).isInstanceOf(IllegalStateException.class);
+	}
+}